@@ -0,0 +1,218 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import business.facade.Store;
+import ui.StoreServer;
+
+/**
+ * Drives a StoreServer on the local machine with many tills checking out at
+ * once and reports the checkouts per second. Products and members are set up
+ * over one connection first, then every till sends checkouts of one random
+ * product for a random member, a number of them at a time without waiting for
+ * the replies, until the time is up. The checkouts answered are printed every
+ * second and the sustained rate at the end.
+ *
+ * java -cp bin benchmark.LoadGenerator [-local] [-port port] [-tills count]
+ * [-seconds count] [-pipeline depth]
+ *
+ * With -local the server is started in the same process on an empty store, run
+ * from an empty directory.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class LoadGenerator {
+	private static final int PRODUCTS = 1000;
+	private static final int MEMBERS = 1000;
+	private static final int PRODUCT_STOCK = 1000000000;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private int port = 7070;
+	private int tills = 16;
+	private int seconds = 10;
+	private int pipeline = 8;
+	private List<Integer> members = new ArrayList<Integer>();
+	private LongAdder checkouts = new LongAdder();
+	private LongAdder failures = new LongAdder();
+	private volatile boolean running = true;
+
+	/**
+	 * A connection to the server
+	 *
+	 */
+	private class Till implements AutoCloseable {
+		private Socket socket;
+		private BufferedReader input;
+		private Writer output;
+
+		Till() throws IOException {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			socket.setTcpNoDelay(true);
+			input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8),
+					BUFFER_SIZE);
+			output = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8),
+					BUFFER_SIZE);
+		}
+
+		/**
+		 * Sends a line and waits for its reply
+		 *
+		 * @param line the command line
+		 * @return the reply line
+		 * @throws IOException if the connection fails
+		 */
+		String call(String line) throws IOException {
+			output.write(line);
+			output.write('\n');
+			output.flush();
+			return input.readLine();
+		}
+
+		@Override
+		public void close() throws IOException {
+			output.write("0\n");
+			output.flush();
+			socket.close();
+		}
+	}
+
+	/**
+	 * Runs the load
+	 *
+	 * @param args the options
+	 * @throws Exception if the server cannot be reached
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		boolean local = false;
+		for (int index = 0; index < args.length; index++) {
+			String option = args[index];
+			if (option.equals("-local")) {
+				local = true;
+			} else if (index + 1 < args.length && option.equals("-port")) {
+				generator.port = Integer.parseInt(args[++index]);
+			} else if (index + 1 < args.length && option.equals("-tills")) {
+				generator.tills = Integer.parseInt(args[++index]);
+			} else if (index + 1 < args.length && option.equals("-seconds")) {
+				generator.seconds = Integer.parseInt(args[++index]);
+			} else if (index + 1 < args.length && option.equals("-pipeline")) {
+				generator.pipeline = Integer.parseInt(args[++index]);
+			} else {
+				System.out.println("Usage: java benchmark.LoadGenerator [-local] [-port port] [-tills count]"
+						+ " [-seconds count] [-pipeline depth]");
+				return;
+			}
+		}
+		StoreServer server = null;
+		if (local) {
+			server = new StoreServer(Store.instance(), 0);
+			generator.port = server.getPort();
+			new Thread(server::serve, "Store server").start();
+		}
+		generator.setUp();
+		generator.run();
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	/**
+	 * Adds the products and enrolls the members the tills check out
+	 *
+	 * @throws IOException if the server cannot be reached
+	 */
+	private void setUp() throws IOException {
+		try (Till till = new Till()) {
+			for (int product = 0; product < PRODUCTS; product++) {
+				// products left from an earlier run are refused, which is fine
+				till.call("3,Load product " + product + "," + productId(product) + "," + PRODUCT_STOCK + ","
+						+ (1 + product % 100) + ".99,0");
+			}
+			while (members.size() < MEMBERS) {
+				String reply = till.call("1,Load member " + members.size() + ",1 Main St,555-0100,20.00");
+				if (reply == null || !reply.startsWith("OK ")) {
+					throw new IOException("Unable to enroll a member: " + reply);
+				}
+				members.add(Integer.parseInt(reply.substring(3)));
+			}
+		}
+	}
+
+	/**
+	 * Runs the tills for the number of seconds and prints the rates
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void run() throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int index = 0; index < tills; index++) {
+			Thread thread = new Thread(this::checkout, "Load till " + index);
+			threads.add(thread);
+			thread.start();
+		}
+		long start = System.nanoTime();
+		long last = 0;
+		for (int second = 1; second <= seconds; second++) {
+			Thread.sleep(1000);
+			long total = checkouts.sum();
+			System.out.printf("%3d s %10d checkouts/s%n", second, total - last);
+			last = total;
+		}
+		running = false;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d tills, pipeline %d: %d checkouts in %.1f s, %.0f checkouts/s sustained, %d failed%n",
+				tills, pipeline, checkouts.sum(), elapsed, checkouts.sum() / elapsed, failures.sum());
+	}
+
+	/**
+	 * Checks out random baskets of one item until the time is up
+	 */
+	private void checkout() {
+		Random random = new Random();
+		StringBuilder line = new StringBuilder();
+		try (Till till = new Till()) {
+			while (running) {
+				for (int sent = 0; sent < pipeline; sent++) {
+					line.setLength(0);
+					line.append("4,").append(members.get(random.nextInt(members.size()))).append(',')
+							.append(productId(random.nextInt(PRODUCTS))).append(",1\n");
+					till.output.append(line);
+				}
+				till.output.flush();
+				for (int received = 0; received < pipeline; received++) {
+					String reply = till.input.readLine();
+					if (reply == null) {
+						throw new IOException("Connection closed by the server");
+					}
+					if (reply.startsWith("OK")) {
+						checkouts.increment();
+					} else {
+						failures.increment();
+					}
+				}
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+
+	private static String productId(int index) {
+		return "LOAD" + index;
+	}
+}
@@ -0,0 +1,360 @@
+package benchmark;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Random;
+
+import business.entities.views.MemberView;
+import business.entities.views.OrderView;
+import business.entities.views.ProductView;
+import business.facade.Request;
+import business.facade.Result;
+import business.facade.Store;
+
+/**
+ * Measures the Store facade operations at growing store sizes. The store is
+ * grown to each size in turn, holding at least that many products, members and
+ * transactions, and every operation is timed against it. Each operation is run
+ * through WARMUP_PASSES times untimed to warm up and then once more timed, the
+ * result is printed in nanoseconds per operation. The number of passes is fixed
+ * rather than timed, so every run does the same work: as many orders are
+ * shipped as products add, and the checksum can be compared between runs.
+ * The operations that add to the store leave the additions in place for the
+ * next size. The store is saved before the first size, so every operation
+ * that changes the store is measured with its journal record written.
+ *
+ * checkForOrder is timed twice: against products stocked far above their
+ * reorder level, which only checks the stock, and against REORDER_PRODUCTS
+ * products kept at their reorder level with no order open, which places an
+ * order every time. Their orders are shipped and their stock sold back down to
+ * the reorder level untimed before each pass.
+ *
+ * Run from an empty directory, the store files are written to the working
+ * directory: java -Xmx4g -cp bin benchmark.StoreBenchmark [size...]
+ *
+ * A size is either one number for the catalog, the member list and the
+ * transaction history, or three separated by commas to size them
+ * independently, products first, then members, then transactions, for example
+ * 1000,100000,1000000. The default sizes are 1000, 10000, 100000 and 1000000.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class StoreBenchmark {
+	private static final int[] DEFAULT_SIZES = { 1000, 10000, 100000, 1000000 };
+	private static final int OPERATIONS = 10000;
+	private static final int LISTING_WORK = 1000000;
+	private static final int PRODUCT_STOCK = 1000000000;
+	private static final int WARMUP_PASSES = 2;
+	private static final int REORDER_PRODUCTS = OPERATIONS;
+	private static final int REORDER_LEVEL = 10;
+
+	private Store store;
+	private Random random = new Random(42);
+	private int members;
+	private int products;
+	private int transactions;
+	private int nextMember = 1;
+	private long checksum;
+
+	/**
+	 * Something that is timed
+	 *
+	 */
+	private interface Operation {
+		/**
+		 * Runs the operation once
+		 *
+		 * @param iteration number of the run
+		 */
+		void run(int iteration);
+	}
+
+	/**
+	 * Runs the benchmarks
+	 *
+	 * @param args the store sizes to measure, smallest first
+	 */
+	public static void main(String[] args) {
+		if (new File("StoreData").exists()) {
+			System.out.println("StoreData found, run the benchmark from an empty directory.");
+			return;
+		}
+		int[][] sizes = new int[DEFAULT_SIZES.length][];
+		for (int index = 0; index < DEFAULT_SIZES.length; index++) {
+			sizes[index] = parseSize(Integer.toString(DEFAULT_SIZES[index]));
+		}
+		if (args.length > 0) {
+			sizes = new int[args.length][];
+			for (int index = 0; index < args.length; index++) {
+				sizes[index] = parseSize(args[index]);
+				if (sizes[index] == null) {
+					System.out.println("Bad size " + args[index] + ", expected a number or products,members,transactions.");
+					return;
+				}
+			}
+		}
+		StoreBenchmark benchmark = new StoreBenchmark();
+		benchmark.store = Store.instance();
+		// a store has no journal until it is first saved
+		if (!Store.save()) {
+			System.out.println("Unable to save the store, the journal could not be opened.");
+			return;
+		}
+		benchmark.addReorderProducts();
+		for (int[] size : sizes) {
+			String name = size[0] == size[1] && size[1] == size[2] ? Integer.toString(size[0])
+					: size[0] + "," + size[1] + "," + size[2];
+			benchmark.grow(name, size[0], size[1], size[2]);
+			benchmark.measureAll(name, Math.max(size[0], Math.max(size[1], size[2])));
+		}
+		System.out.println("checksum " + benchmark.checksum);
+	}
+
+	/**
+	 * Reads a size argument
+	 *
+	 * @param argument one number or products, members and transactions
+	 *                 separated by commas
+	 * @return the numbers of products, members and transactions, null if the
+	 *         argument is not a size
+	 */
+	private static int[] parseSize(String argument) {
+		String[] values = argument.split(",");
+		if (values.length != 1 && values.length != 3) {
+			return null;
+		}
+		int[] size = new int[3];
+		try {
+			for (int index = 0; index < size.length; index++) {
+				size[index] = Integer.parseInt(values[values.length == 1 ? 0 : index].trim());
+				if (size[index] < 1) {
+					return null;
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			return null;
+		}
+		return size;
+	}
+
+	/**
+	 * Adds products, members and transactions until there are as many as asked
+	 *
+	 * @param name          the store size, for the output
+	 * @param productCount  number of products
+	 * @param memberCount   number of members
+	 * @param historyLength number of transactions
+	 */
+	private void grow(String name, int productCount, int memberCount, int historyLength) {
+		long start = System.nanoTime();
+		while (products < productCount) {
+			addProduct();
+		}
+		while (members < memberCount) {
+			enrollMember();
+		}
+		while (transactions < historyLength) {
+			checkout();
+		}
+		System.out.printf("%nsize %s, filled in %d ms%n", name, (System.nanoTime() - start) / 1000000);
+	}
+
+	/**
+	 * Times every operation against the current store
+	 *
+	 * @param size    the store size, for the output
+	 * @param largest the largest number of products, members or transactions
+	 */
+	private void measureAll(String size, int largest) {
+		int listings = Math.max(3, LISTING_WORK / largest);
+		measure(size, "enrollMember", OPERATIONS, iteration -> enrollMember());
+		measure(size, "addProduct", OPERATIONS, iteration -> addProduct());
+		measure(size, "checkoutMember", OPERATIONS, iteration -> checkout());
+		measure(size, "checkForOrder", OPERATIONS, iteration -> {
+			Request request = new Request();
+			request.setProductId(productId(random.nextInt(products)));
+			checksum += store.checkForOrder(request).getMessage() == null ? 0 : 1;
+		});
+		measure(size, "checkForOrder reorder", REORDER_PRODUCTS, this::restockReorderProducts, iteration -> {
+			Request request = new Request();
+			request.setProductId(reorderProductId(iteration));
+			checksum += store.checkForOrder(request).getMessage() == null ? 0 : 1;
+		});
+		measure(size, "changeProductPrice", OPERATIONS, iteration -> {
+			Request request = new Request();
+			request.setProductId(productId(random.nextInt(products)));
+			request.setNewProductPrice(100 + random.nextInt(1000));
+			checksum += store.changeProductPrice(request).getSuccess() ? 1 : 0;
+		});
+		// every product added places an order, the oldest ones left are shipped
+		int[] shipments = new int[OPERATIONS];
+		measure(size, "processShipment", OPERATIONS, () -> {
+			Iterator<Result> pending = store.getOrderList();
+			for (int index = 0; index < shipments.length; index++) {
+				shipments[index] = pending.hasNext() ? pending.next().getOrderId() : 0;
+			}
+		}, iteration -> {
+			Request request = new Request();
+			request.setOrderId(shipments[iteration]);
+			checksum += store.processShipment(request).getSuccess() ? 1 : 0;
+		});
+		measure(size, "printTransactions", OPERATIONS, iteration -> {
+			Request request = new Request();
+			request.setMemberId(1 + random.nextInt(nextMember - 1));
+			request.setStartDate(new Date(0));
+			request.setEndDate(new Date(Long.MAX_VALUE));
+			checksum += store.printTransactions(request).size();
+		});
+		measure(size, "getMemberList", listings, iteration -> drain(store.getMemberList()));
+		measure(size, "getProductList", listings, iteration -> drain(store.getProductList()));
+		measure(size, "getOrderList", listings, iteration -> drain(store.getOrderList()));
+		measure(size, "getMemberViews", listings, iteration -> {
+			for (Iterator<MemberView> views = store.getMemberViews(); views.hasNext();) {
+				checksum += views.next().getId();
+			}
+		});
+		measure(size, "getProductViews", listings, iteration -> {
+			for (Iterator<ProductView> views = store.getProductViews(); views.hasNext();) {
+				checksum += views.next().getStock();
+			}
+		});
+		measure(size, "getOrderViews", listings, iteration -> {
+			for (Iterator<OrderView> views = store.getOrderViews(); views.hasNext();) {
+				checksum += views.next().getQuantity();
+			}
+		});
+		measure(size, "save", 3, iteration -> checksum += Store.save() ? 1 : 0);
+		measure(size, "retrieve", 3, iteration -> {
+			store = Store.retrieve();
+			checksum += store == null ? 0 : 1;
+		});
+	}
+
+	/**
+	 * Runs an operation to warm up and then times it
+	 *
+	 * @param size       the store size
+	 * @param name       name of the operation
+	 * @param iterations how many times to run it in a pass
+	 * @param operation  the operation
+	 */
+	private void measure(String size, String name, int iterations, Operation operation) {
+		measure(size, name, iterations, () -> {
+		}, operation);
+	}
+
+	/**
+	 * Runs WARMUP_PASSES passes of an operation to warm up and then times one
+	 * pass
+	 *
+	 * @param size       the store size
+	 * @param name       name of the operation
+	 * @param iterations how many times to run it in a pass
+	 * @param prepare    runs untimed before each pass
+	 * @param operation  the operation
+	 */
+	private void measure(String size, String name, int iterations, Runnable prepare, Operation operation) {
+		for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+			prepare.run();
+			for (int iteration = 0; iteration < iterations; iteration++) {
+				operation.run(iteration);
+			}
+		}
+		prepare.run();
+		long start = System.nanoTime();
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			operation.run(iteration);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-22s %22s %15.1f ns/op%n", name, size, (double) elapsed / iterations);
+	}
+
+	private void enrollMember() {
+		Request request = new Request();
+		request.setMemberName("Member " + nextMember);
+		request.setMemberAddress(nextMember + " Main St");
+		request.setMemberPhoneNumber("555-" + nextMember);
+		request.setMemberJoinDate(new Date());
+		request.setMemberFees(20);
+		if (store.enrollMember(request).getSuccess()) {
+			nextMember++;
+			members++;
+		}
+	}
+
+	private void addProduct() {
+		Request request = new Request();
+		request.setProductName("Product " + products);
+		request.setProductId(productId(products));
+		request.setProductStock(PRODUCT_STOCK);
+		request.setProductPrice(100 + products % 1000);
+		request.setProductReOrderLevel(10);
+		if (store.addProduct(request).getSuccess()) {
+			products++;
+		}
+	}
+
+	/**
+	 * Adds the products checkForOrder reorder is timed against, out of stock so
+	 * their first order is placed
+	 */
+	private void addReorderProducts() {
+		for (int index = 0; index < REORDER_PRODUCTS; index++) {
+			Request request = new Request();
+			request.setProductName("Reorder " + index);
+			request.setProductId(reorderProductId(index));
+			request.setProductStock(0);
+			request.setProductPrice(100 + index % 1000);
+			request.setProductReOrderLevel(REORDER_LEVEL);
+			store.addProduct(request);
+		}
+	}
+
+	/**
+	 * Ships the open orders of the reorder products and sells their stock down
+	 * to the reorder level, so checkForOrder places an order for each of them
+	 */
+	private void restockReorderProducts() {
+		for (int index = 0; index < REORDER_PRODUCTS; index++) {
+			Request request = new Request();
+			request.setProductId(reorderProductId(index));
+			for (Iterator<Result> open = store.getOrderList(request); open.hasNext();) {
+				Request shipment = new Request();
+				shipment.setOrderId(open.next().getOrderId());
+				store.processShipment(shipment);
+			}
+			int surplus = store.getProduct(request).getProductStock() - REORDER_LEVEL;
+			if (surplus > 0) {
+				request.setMemberId(1);
+				request.setQuantity(surplus);
+				store.checkoutMember(request);
+			}
+		}
+	}
+
+	private void checkout() {
+		Request request = new Request();
+		request.setMemberId(1 + random.nextInt(nextMember - 1));
+		request.setProductId(productId(random.nextInt(products)));
+		request.setQuantity(1);
+		if (store.checkoutMember(request).getSuccess()) {
+			transactions++;
+		}
+	}
+
+	private void drain(Iterator<Result> results) {
+		while (results.hasNext()) {
+			checksum += results.next().getMemberId();
+		}
+	}
+
+	private static String productId(int index) {
+		return "P" + index;
+	}
+
+	private static String reorderProductId(int index) {
+		return "R" + index;
+	}
+}
@@ -2,13 +2,17 @@ package business.entities;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.LinkedList;
 
 public class Member implements Serializable {
 	private static final long serialVersionUID = 1L;
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("id", int.class),
+			new ObjectStreamField("name", String.class), new ObjectStreamField("phoneNumber", String.class),
+			new ObjectStreamField("address", String.class), new ObjectStreamField("joinDate", Date.class),
+			new ObjectStreamField("fees", double.class), new ObjectStreamField("transactions", LinkedList.class) };
 	/**
 	 * id, an integer that uniquely identifies the Member object.
 	 */
@@ -17,26 +21,35 @@ public class Member implements Serializable {
 	private String phoneNumber;
 	private String address;
 	private Date joinDate;
-	private double fees;
+	/**
+	 * fees paid in cents
+	 */
+	private long fees;
 	private LinkedList<Transaction> transactions;
-
 	/**
-	 * A static field (say, idCounter) to generate the value to be stored in id.
-	 * Increment this field once within the constructor and store the value in id.
-	 * Since there is exactly one instance of idCounter, every Point object will
-	 * have a unique value stored in id.
+	 * Position of the member's newest transaction in the store's transaction
+	 * history file, 0 if there is none. Read by a save copying the store while
+	 * it changes.
 	 */
-	private static int idCounter = 1;
+	private volatile long lastTransaction;
 
-	public Member(String name, String address, String phoneNumber, Date joinDate, double fees) {
-		super();
+	/**
+	 * Creates a member. Ids are handed out by the store.
+	 * 
+	 * @param id          the member id
+	 * @param name        the name
+	 * @param address     the address
+	 * @param phoneNumber the phone number
+	 * @param joinDate    the join date
+	 * @param fees        the fees paid in cents
+	 */
+	public Member(int id, String name, String address, String phoneNumber, Date joinDate, long fees) {
+		this.id = id;
 		this.name = name;
 		this.address = address;
 		this.phoneNumber = phoneNumber;
 		this.joinDate = joinDate;
 		this.fees = fees;
-		this.id = idCounter;
-		idCounter++;
 		transactions = new LinkedList<Transaction>();
 	}
 
@@ -77,39 +90,12 @@ public class Member implements Serializable {
 	}
 
 	/**
-	 * @return the fees
+	 * @return the fees in cents
 	 */
-	public double getFees() {
+	public long getFees() {
 		return fees;
 	}
 
-	/**
-	 * gets the current value of the counter
-	 * @return value of the counter
-	 */
-	public int getIdCounter() {
-		return idCounter;
-	}
-
-	/**
-	 * Saves the idCounter for Member
-	 * @param output where to write the info
-	 * @throws IOException file error
-	 */
-	public static void save(ObjectOutputStream output) throws IOException {
-		output.writeObject(idCounter);
-	}
-
-	/**
-	 * Reads idCounter from file
-	 * @param input file to get the info
-	 * @throws IOException file error
-	 * @throws ClassNotFoundException class error
-	 */
-	public static void retrieve(ObjectInputStream input) throws IOException, ClassNotFoundException {
-		idCounter = (int) input.readObject();
-	}
-
 	/**
 	 * Function to see if member id matches given id
 	 * @param id id to check
@@ -139,11 +125,50 @@ public class Member implements Serializable {
 	}
 
 	/**
-	 * returns a linked list of the members transactions
+	 * gets where the newest transaction is kept in the transaction history
+	 * @return position of the newest transaction, 0 if there is none
+	 */
+	public long getLastTransaction() {
+		return lastTransaction;
+	}
+
+	/**
+	 * sets where the newest transaction is kept in the transaction history
+	 * @param lastTransaction position of the newest transaction
+	 */
+	public void setLastTransaction(long lastTransaction) {
+		this.lastTransaction = lastTransaction;
+	}
+
+	/**
+	 * returns a linked list of the members transactions that are held in memory.
+	 * Transactions written to the store's transaction history are not included.
 	 * @return transaction list
 	 */
 	public LinkedList<Transaction> getTransactions() {
 		return transactions;
 	}
 
+	/**
+	 * Reads a member from a store file saved with Java serialization, where the
+	 * fees are in dollars
+	 * 
+	 * @param input stream to read from
+	 * @throws IOException            file error
+	 * @throws ClassNotFoundException class error
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		id = fields.get("id", 0);
+		name = (String) fields.get("name", null);
+		phoneNumber = (String) fields.get("phoneNumber", null);
+		address = (String) fields.get("address", null);
+		joinDate = (Date) fields.get("joinDate", null);
+		fees = Money.fromDouble(fields.get("fees", 0.0));
+		transactions = (LinkedList<Transaction>) fields.get("transactions", null);
+		if (transactions == null) {
+			transactions = new LinkedList<Transaction>();
+		}
+	}
 }
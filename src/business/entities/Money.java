@@ -0,0 +1,131 @@
+package business.entities;
+
+/**
+ * Amounts of money are kept as a long number of cents, so sums are exact and
+ * nothing is allocated to hold them. This class converts and formats such
+ * amounts. Formatting appends to a StringBuilder the caller already has, so a
+ * receipt or listing line is built without creating a formatter or any
+ * intermediate strings.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public final class Money {
+	private static final int CENTS = 100;
+
+	private Money() {
+	}
+
+	/**
+	 * Converts an amount given in dollars, rounding to the nearest cent. Used for
+	 * amounts read from files written before amounts were kept in cents.
+	 *
+	 * @param dollars the amount in dollars
+	 * @return the amount in cents
+	 */
+	public static long fromDouble(double dollars) {
+		return Math.round(dollars * CENTS);
+	}
+
+	/**
+	 * Parses an amount typed in dollars such as 12, 12.5 or 1,234.56, with at
+	 * most two decimals and an optional leading $ or -
+	 *
+	 * @param text the amount
+	 * @return the amount in cents
+	 * @throws NumberFormatException if the text is not an amount
+	 */
+	public static long parse(String text) {
+		int index = 0;
+		int length = text.length();
+		boolean negative = false;
+		if (index < length && text.charAt(index) == '-') {
+			negative = true;
+			index++;
+		}
+		if (index < length && text.charAt(index) == '$') {
+			index++;
+		}
+		long dollars = 0;
+		int digits = 0;
+		for (; index < length && text.charAt(index) != '.'; index++) {
+			char next = text.charAt(index);
+			if (next == ',' && digits > 0) {
+				continue;
+			}
+			if (next < '0' || next > '9') {
+				throw new NumberFormatException("Not an amount: " + text);
+			}
+			dollars = Math.addExact(Math.multiplyExact(dollars, 10), next - '0');
+			digits++;
+		}
+		long cents = 0;
+		int decimals = 0;
+		if (index < length) {
+			for (index++; index < length; index++) {
+				char next = text.charAt(index);
+				if (next < '0' || next > '9' || ++decimals > 2) {
+					throw new NumberFormatException("Not an amount: " + text);
+				}
+				cents = cents * 10 + next - '0';
+			}
+		}
+		if (digits + decimals == 0) {
+			throw new NumberFormatException("Not an amount: " + text);
+		}
+		if (decimals == 1) {
+			cents *= 10;
+		}
+		long amount = Math.addExact(Math.multiplyExact(dollars, CENTS), cents);
+		return negative ? -amount : amount;
+	}
+
+	/**
+	 * Multiplies a price by a quantity
+	 *
+	 * @param cents    the price in cents
+	 * @param quantity the quantity
+	 * @return the total in cents
+	 */
+	public static long times(long cents, int quantity) {
+		return Math.multiplyExact(cents, quantity);
+	}
+
+	/**
+	 * Appends an amount as dollars with thousands separators and two decimals,
+	 * like 1,234.50
+	 *
+	 * @param builder where to append
+	 * @param cents   the amount in cents
+	 * @return the builder
+	 */
+	public static StringBuilder append(StringBuilder builder, long cents) {
+		if (cents < 0) {
+			builder.append('-');
+		}
+		appendGrouped(builder, Math.abs(cents / CENTS));
+		int fraction = (int) Math.abs(cents % CENTS);
+		return builder.append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+	}
+
+	/**
+	 * Formats an amount like append
+	 *
+	 * @param cents the amount in cents
+	 * @return the amount as dollars
+	 */
+	public static String format(long cents) {
+		return append(new StringBuilder(16), cents).toString();
+	}
+
+	private static void appendGrouped(StringBuilder builder, long dollars) {
+		if (dollars < 1000) {
+			builder.append(dollars);
+			return;
+		}
+		appendGrouped(builder, dollars / 1000);
+		int group = (int) (dollars % 1000);
+		builder.append(',').append((char) ('0' + group / 100)).append((char) ('0' + group / 10 % 10))
+				.append((char) ('0' + group % 10));
+	}
+}
@@ -1,8 +1,5 @@
 package business.entities;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -23,15 +20,19 @@ public class Order implements Serializable {
 	private int orderId;
 	private Date createdDate;
 
-	private static int idCounter = 1;
-
-	public Order(Product orderItem, int quantity) {
-		Date date = new Date(System.currentTimeMillis());
+	/**
+	 * Creates an order placed at the given time. Ids are handed out by the store.
+	 * 
+	 * @param orderId     the order id
+	 * @param orderItem   the product ordered
+	 * @param quantity    amount ordered
+	 * @param createdDate when the order was placed
+	 */
+	public Order(int orderId, Product orderItem, int quantity, Date createdDate) {
 		this.orderItem = orderItem;
 		this.quantity = quantity;
-		this.orderId = idCounter;
-		this.createdDate = date;
-		idCounter++;
+		this.orderId = orderId;
+		this.createdDate = createdDate;
 	}
 
 	/**
@@ -126,25 +127,4 @@ public class Order implements Serializable {
 	public String toString() {
 		return "ID: " + orderId + "\t" + orderItem.getName() + "\t" + this.getDate() + "\tAmount: " + quantity;
 	}
-
-	/**
-	 * saves the order id to file
-	 * 
-	 * @param output file to save it to
-	 * @throws IOException file error
-	 */
-	public static void save(ObjectOutputStream output) throws IOException {
-		output.writeObject(idCounter);
-	}
-
-	/**
-	 * reads the order id from a file
-	 * 
-	 * @param input file to read from
-	 * @throws IOException            file error
-	 * @throws ClassNotFoundException
-	 */
-	public static void retrieve(ObjectInputStream input) throws IOException, ClassNotFoundException {
-		idCounter = (int) input.readObject();
-	}
 }
\ No newline at end of file
@@ -1,98 +1,202 @@
 package business.entities;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
  * An object representing a product in a grocery store. Has fields such as name,
- * id, stock, price and reOrderLevel.
+ * id, stock, price in cents and reOrderLevel.
+ * A product is a handle naming a row of a ProductTable, the fields are kept in
+ * the columns of the table only. A new product has a table of its own until it
+ * is added to a catalog, when its row moves to the catalog's table. The store
+ * holds the lock of a product while changing it, the columns can be read
+ * without the lock.
+ * Transactions refer to an immutable version of the product that is shared
+ * until the name, id, price or reorder level changes.
  * 
  * @author Vincent Peterson, Michael Olson
  *
  */
 public class Product implements Serializable {
 	private static final long serialVersionUID = 1L;
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("name", String.class),
+			new ObjectStreamField("id", String.class), new ObjectStreamField("stock", int.class),
+			new ObjectStreamField("price", double.class), new ObjectStreamField("reOrderLevel", int.class) };
 
-	private String name;
-	private String id;
-	private int stock;
-	private double price;
-	private int reOrderLevel;
+	// set again only when the product is added to a catalog, before the catalog
+	// hands the product out
+	private transient ProductTable table;
+	private transient int ordinal;
 
-	public Product(String name, String id, int stock, double price, int reOrderLevel) {
-		this.name = name;
-		this.id = id;
-		this.stock = stock;
-		this.price = price;
-		this.reOrderLevel = reOrderLevel;
+	/**
+	 * Creates a product
+	 * 
+	 * @param name         the name
+	 * @param id           the id
+	 * @param stock        the stock
+	 * @param price        the price in cents
+	 * @param reOrderLevel the reorder level
+	 */
+	public Product(String name, String id, int stock, long price, int reOrderLevel) {
+		table = ProductTable.row(this, name, id, stock, price, reOrderLevel, false);
+	}
+
+	/**
+	 * Creates an immutable version of a product, as transactions refer to
+	 * 
+	 * @param name         the name
+	 * @param id           the id
+	 * @param stock        the stock
+	 * @param price        the price in cents
+	 * @param reOrderLevel the reorder level
+	 * @return the version
+	 */
+	public static Product version(String name, String id, int stock, long price, int reOrderLevel) {
+		Product version = new Product(null, 0);
+		version.table = ProductTable.row(version, name, id, stock, price, reOrderLevel, true);
+		return version;
+	}
+
+	/**
+	 * Creates a handle on a row of a table
+	 * 
+	 * @param table   the table
+	 * @param ordinal the row
+	 */
+	Product(ProductTable table, int ordinal) {
+		this.table = table;
+		this.ordinal = ordinal;
 	}
 
 	/**
 	 * @return the name
 	 */
 	public String getName() {
-		return name;
+		return table.getName(ordinal);
 	}
 
 	/**
 	 * @param name the name to set
 	 */
 	public void setName(String name) {
-		this.name = name;
+		checkChangeable();
+		table.setName(ordinal, name);
 	}
 
 	/**
 	 * @return the id
 	 */
 	public String getId() {
-		return id;
+		return table.getId(ordinal);
 	}
 
 	/**
 	 * @param id the id to set
 	 */
 	public void setId(String id) {
-		this.id = id;
+		checkChangeable();
+		table.setId(ordinal, id);
 	}
 
 	/**
 	 * @return the stock
 	 */
 	public int getStock() {
-		return stock;
+		return table.getStock(ordinal);
 	}
 
 	/**
 	 * @param stock the stock to set
 	 */
 	public void setStock(int stock) {
-		this.stock = stock;
+		checkChangeable();
+		table.setStock(ordinal, stock);
+	}
+
+	/**
+	 * @return the price in cents
+	 */
+	public long getPrice() {
+		return table.getPriceCents(ordinal);
+	}
+
+	/**
+	 * @param price the price to set in cents
+	 */
+	public void setPrice(long price) {
+		checkChangeable();
+		table.setPriceCents(ordinal, price);
+	}
+
+	/**
+	 * Gets the immutable version of the product as it is now. The same version
+	 * is handed out until the name, id, price or reorder level changes, so
+	 * transactions of the same product share it. Its stock is the stock when the
+	 * version was made.
+	 * 
+	 * @return the current version
+	 */
+	public Product getVersion() {
+		if (table.isFixed()) {
+			return this;
+		}
+		Product current = table.getVersion(ordinal);
+		if (current == null) {
+			current = version(getName(), getId(), getStock(), getPrice(), getReOrderLevel());
+			table.setVersion(ordinal, current);
+		}
+		return current;
 	}
 
 	/**
-	 * @return the price
+	 * Versions are shared by transactions and must not change
 	 */
-	public double getPrice() {
-		return price;
+	private void checkChangeable() {
+		if (table.isFixed()) {
+			throw new UnsupportedOperationException("A product version can not be changed");
+		}
 	}
 
 	/**
-	 * @param price the price to set
+	 * Moves the row of the product to a table. The store calls this once, when
+	 * the product is added to the catalog and before it is handed out.
+	 * 
+	 * @param table the table of the catalog
 	 */
-	public void setPrice(double price) {
-		this.price = price;
+	public void attach(ProductTable table) {
+		checkChangeable();
+		if (this.table.isSingle()) {
+			table.add(this);
+		}
+	}
+
+	ProductTable table() {
+		return table;
+	}
+
+	int ordinal() {
+		return ordinal;
+	}
+
+	void moveTo(ProductTable table, int ordinal) {
+		this.table = table;
+		this.ordinal = ordinal;
 	}
 
 	/**
 	 * @return the reOrderLevel
 	 */
 	public int getReOrderLevel() {
-		return reOrderLevel;
+		return table.getReOrderLevel(ordinal);
 	}
 
 	/**
 	 * @param reOrderLevel the reOrderLevel to set
 	 */
 	public void setReOrderLevel(int reOrderLevel) {
-		this.reOrderLevel = reOrderLevel;
+		checkChangeable();
+		table.setReOrderLevel(ordinal, reOrderLevel);
 	}
 	
 	/**
@@ -101,7 +205,7 @@ public class Product implements Serializable {
 	 * @return true if successful
 	 */
 	public boolean matchesName(String name) {
-		return (name.equalsIgnoreCase(this.name));
+		return (name.equalsIgnoreCase(getName()));
 	}
 	
 	/**
@@ -110,13 +214,14 @@ public class Product implements Serializable {
 	 * @return true if they match
 	 */
 	public boolean matchesID(String id) {
-		return (id.equalsIgnoreCase(this.id));
+		return (id.equalsIgnoreCase(getId()));
 	}
 	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		String name = getName();
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		return result;
 	}
@@ -130,11 +235,28 @@ public class Product implements Serializable {
 		if (getClass() != obj.getClass())
 			return false;
 		Product other = (Product) obj;
+		String name = getName();
 		if (name == null) {
-			if (other.name != null)
+			if (other.getName() != null)
 				return false;
-		} else if (!name.equals(other.name))
+		} else if (!name.equals(other.getName()))
 			return false;
 		return true;
 	}
+
+	/**
+	 * Reads a product from a store file saved with Java serialization, where the
+	 * price is in dollars
+	 * 
+	 * @param input stream to read from
+	 * @throws IOException            file error
+	 * @throws ClassNotFoundException class error
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = input.readFields();
+		String name = (String) fields.get("name", null);
+		String id = (String) fields.get("id", null);
+		long price = Money.fromDouble(fields.get("price", 0.0));
+		table = ProductTable.row(this, name, id, fields.get("stock", 0), price, fields.get("reOrderLevel", 0), false);
+	}
 }
@@ -0,0 +1,377 @@
+package business.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Columns holding the products of a catalog. Each product gets a dense ordinal
+ * when it is added and its name, id, stock, price in cents and reorder level
+ * are kept in one primitive array per field, so walking the catalog reads
+ * contiguous memory instead of one scattered object per product. A Product is
+ * only a handle naming its table and ordinal. Ordinals are handed out in the
+ * order products are added, so the table lists the catalog in that order and
+ * scans such as finding the products low on stock read the columns directly.
+ *
+ * The columns are stored in fixed size chunks, so values can be read and
+ * written without locking; only adding a product locks. A value is changed
+ * while holding the lock of its product. A save freezes the table in constant
+ * time: the frozen table shares the chunks, and the first change of a chunk
+ * after the freeze copies the chunk, so the frozen table keeps the values it
+ * was frozen with.
+ *
+ * A product that is not in a catalog, and every version of a product, has a
+ * table of its own holding just its row.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class ProductTable {
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private volatile Chunk[] chunks;
+	private volatile int size;
+	private final boolean single;
+	private final boolean fixed;
+	// chunks made before the latest freeze are shared with the frozen table
+	private volatile int epoch;
+	private boolean shared;
+
+	/**
+	 * The columns of CHUNK_SIZE products, or of the one product of a single row
+	 * table. Besides the fields, a chunk holds the product of each row and the
+	 * version handed out for it, if any.
+	 *
+	 */
+	private static class Chunk {
+		private final int epoch;
+		private final AtomicReferenceArray<String> names;
+		private final AtomicReferenceArray<String> ids;
+		private final AtomicIntegerArray stock;
+		private final AtomicLongArray prices;
+		private final AtomicIntegerArray reOrderLevels;
+		private final AtomicReferenceArray<Product> products;
+		private final AtomicReferenceArray<Product> versions;
+
+		private Chunk(int rows, int epoch) {
+			this.epoch = epoch;
+			names = new AtomicReferenceArray<String>(rows);
+			ids = new AtomicReferenceArray<String>(rows);
+			stock = new AtomicIntegerArray(rows);
+			prices = new AtomicLongArray(rows);
+			reOrderLevels = new AtomicIntegerArray(rows);
+			products = new AtomicReferenceArray<Product>(rows);
+			versions = new AtomicReferenceArray<Product>(rows);
+		}
+
+		private Chunk(Chunk chunk, int epoch) {
+			this(chunk.names.length(), epoch);
+			for (int offset = 0; offset < chunk.names.length(); offset++) {
+				set(offset, chunk.products.get(offset), chunk.names.get(offset), chunk.ids.get(offset),
+						chunk.stock.get(offset), chunk.prices.get(offset), chunk.reOrderLevels.get(offset));
+				versions.set(offset, chunk.versions.get(offset));
+			}
+		}
+
+		private void set(int offset, Product product, String name, String id, int stock, long priceCents,
+				int reOrderLevel) {
+			names.set(offset, name);
+			ids.set(offset, id);
+			this.stock.set(offset, stock);
+			prices.set(offset, priceCents);
+			reOrderLevels.set(offset, reOrderLevel);
+			products.set(offset, product);
+		}
+	}
+
+	/**
+	 * Creates an empty table for a catalog
+	 */
+	public ProductTable() {
+		chunks = new Chunk[16];
+		single = false;
+		fixed = false;
+	}
+
+	/**
+	 * Creates a table holding the one row of a product
+	 *
+	 * @param fixed true if the row can not be changed
+	 */
+	private ProductTable(boolean fixed) {
+		chunks = new Chunk[] { new Chunk(1, 0) };
+		single = true;
+		this.fixed = fixed;
+	}
+
+	/**
+	 * Creates a frozen table
+	 *
+	 * @param chunks the chunks of the table frozen
+	 * @param size   the number of products when frozen
+	 */
+	private ProductTable(Chunk[] chunks, int size) {
+		this.chunks = chunks;
+		this.size = size;
+		single = false;
+		fixed = true;
+	}
+
+	/**
+	 * Creates the table of a product that is not in a catalog
+	 *
+	 * @param product      the product
+	 * @param name         the name
+	 * @param id           the id
+	 * @param stock        the stock
+	 * @param priceCents   the price in cents
+	 * @param reOrderLevel the reorder level
+	 * @param fixed        true if the product is a version that can not change
+	 * @return the table, the product is its row 0
+	 */
+	static ProductTable row(Product product, String name, String id, int stock, long priceCents, int reOrderLevel,
+			boolean fixed) {
+		ProductTable table = new ProductTable(fixed);
+		table.chunks[0].set(0, product, name, id, stock, priceCents, reOrderLevel);
+		table.size = 1;
+		return table;
+	}
+
+	/**
+	 * Adds a row for a product and moves the product to it. The product is
+	 * listed by the table once its row is complete.
+	 *
+	 * @param product the product, still in the table of its own
+	 */
+	synchronized void add(Product product) {
+		ProductTable from = product.table();
+		int row = product.ordinal();
+		int ordinal = size;
+		int index = ordinal >>> CHUNK_BITS;
+		if (index == chunks.length || chunks[index] == null) {
+			Chunk[] current = ownChunks(Math.max(chunks.length, (index + 1) * 2));
+			current[index] = new Chunk(CHUNK_SIZE, epoch);
+			chunks = current;
+		}
+		writable(ordinal).set(offset(ordinal), product, from.getName(row), from.getId(row), from.getStock(row),
+				from.getPriceCents(row), from.getReOrderLevel(row));
+		product.moveTo(this, ordinal);
+		size = ordinal + 1;
+	}
+
+	/**
+	 * Freezes the table. The frozen table keeps the products and values the
+	 * table has now while the table goes on changing. Takes constant time, the
+	 * caller makes sure nothing changes at the same time.
+	 *
+	 * @return the frozen table
+	 */
+	public synchronized ProductTable freeze() {
+		shared = true;
+		epoch++;
+		return new ProductTable(chunks, size);
+	}
+
+	/**
+	 * Gets an immutable product reading a row of a frozen table
+	 *
+	 * @param ordinal the ordinal of the product
+	 * @return the product
+	 */
+	public Product version(int ordinal) {
+		if (!fixed) {
+			throw new UnsupportedOperationException("Only the rows of a frozen table can be read as versions");
+		}
+		return new Product(this, ordinal);
+	}
+
+	/**
+	 * @return true if the table holds the one row of a product
+	 */
+	boolean isSingle() {
+		return single;
+	}
+
+	/**
+	 * @return true if the rows can not be changed
+	 */
+	boolean isFixed() {
+		return fixed;
+	}
+
+	/**
+	 * @return the number of products in the table
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the product of a row
+	 *
+	 * @param ordinal the ordinal of the product
+	 * @return the product
+	 */
+	public Product get(int ordinal) {
+		return chunk(ordinal).products.get(offset(ordinal));
+	}
+
+	/**
+	 * Lists the products from an ordinal on in the order they were added.
+	 * Products added while listing are listed too.
+	 *
+	 * @param from ordinal of the first product to list
+	 * @return iterator over the products
+	 */
+	public Iterator<Product> iterator(int from) {
+		return new Iterator<Product>() {
+			private int next = from;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Product next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+		};
+	}
+
+	/**
+	 * Finds the products whose stock is at or below their reorder level by
+	 * scanning the stock and reorder level columns
+	 *
+	 * @return the products in the order they were added
+	 */
+	public List<Product> lowStock() {
+		List<Product> low = new ArrayList<Product>();
+		int count = size;
+		Chunk[] current = chunks;
+		for (int base = 0; base < count; base += CHUNK_SIZE) {
+			Chunk chunk = current[base >>> CHUNK_BITS];
+			int rows = Math.min(CHUNK_SIZE, count - base);
+			for (int offset = 0; offset < rows; offset++) {
+				if (chunk.stock.get(offset) <= chunk.reOrderLevels.get(offset)) {
+					low.add(chunk.products.get(offset));
+				}
+			}
+		}
+		return low;
+	}
+
+	String getName(int ordinal) {
+		return chunk(ordinal).names.get(offset(ordinal));
+	}
+
+	void setName(int ordinal, String name) {
+		Chunk chunk = writable(ordinal);
+		chunk.names.set(offset(ordinal), name);
+		chunk.versions.set(offset(ordinal), null);
+	}
+
+	String getId(int ordinal) {
+		return chunk(ordinal).ids.get(offset(ordinal));
+	}
+
+	void setId(int ordinal, String id) {
+		Chunk chunk = writable(ordinal);
+		chunk.ids.set(offset(ordinal), id);
+		chunk.versions.set(offset(ordinal), null);
+	}
+
+	int getStock(int ordinal) {
+		return chunk(ordinal).stock.get(offset(ordinal));
+	}
+
+	void setStock(int ordinal, int stock) {
+		writable(ordinal).stock.set(offset(ordinal), stock);
+	}
+
+	long getPriceCents(int ordinal) {
+		return chunk(ordinal).prices.get(offset(ordinal));
+	}
+
+	void setPriceCents(int ordinal, long priceCents) {
+		Chunk chunk = writable(ordinal);
+		chunk.prices.set(offset(ordinal), priceCents);
+		chunk.versions.set(offset(ordinal), null);
+	}
+
+	int getReOrderLevel(int ordinal) {
+		return chunk(ordinal).reOrderLevels.get(offset(ordinal));
+	}
+
+	void setReOrderLevel(int ordinal, int reOrderLevel) {
+		Chunk chunk = writable(ordinal);
+		chunk.reOrderLevels.set(offset(ordinal), reOrderLevel);
+		chunk.versions.set(offset(ordinal), null);
+	}
+
+	Product getVersion(int ordinal) {
+		return chunk(ordinal).versions.get(offset(ordinal));
+	}
+
+	void setVersion(int ordinal, Product version) {
+		writable(ordinal).versions.set(offset(ordinal), version);
+	}
+
+	private Chunk chunk(int ordinal) {
+		return chunks[ordinal >>> CHUNK_BITS];
+	}
+
+	/**
+	 * Gets the chunk of a row to change it, copying the chunk first if it is
+	 * shared with a frozen table
+	 *
+	 * @param ordinal the ordinal of the row
+	 * @return the chunk
+	 */
+	private Chunk writable(int ordinal) {
+		Chunk chunk = chunk(ordinal);
+		if (chunk.epoch == epoch) {
+			return chunk;
+		}
+		synchronized (this) {
+			int index = ordinal >>> CHUNK_BITS;
+			chunk = chunks[index];
+			if (chunk.epoch != epoch) {
+				Chunk[] current = ownChunks(chunks.length);
+				chunk = new Chunk(chunk, epoch);
+				current[index] = chunk;
+				chunks = current;
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Gets the array of chunks to change it, copying it first if it is shared
+	 * with a frozen table. Called while holding the lock of the table.
+	 *
+	 * @param length the length the array needs
+	 * @return the array, not yet published
+	 */
+	private Chunk[] ownChunks(int length) {
+		Chunk[] current = chunks;
+		if (shared || length > current.length) {
+			current = Arrays.copyOf(current, length);
+			shared = false;
+		}
+		return current;
+	}
+
+	private static int offset(int ordinal) {
+		return ordinal & (CHUNK_SIZE - 1);
+	}
+}
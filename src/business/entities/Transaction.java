@@ -1,7 +1,6 @@
 package business.entities;
 
 import java.io.Serializable;
-import java.text.DecimalFormat;
 import java.util.Date;
 
 public class Transaction implements Serializable {
@@ -12,10 +11,20 @@ public class Transaction implements Serializable {
 	public Date timePurchased;
 
 	public Transaction(Product item, int amountPurchased) {
-		Date date = new Date(System.currentTimeMillis());
-		this.item = new Product(item.getName(), item.getId(), item.getStock(), item.getPrice(), item.getReOrderLevel());
+		this(item, amountPurchased, new Date(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Creates a transaction made at the given time
+	 * 
+	 * @param item            the product purchased
+	 * @param amountPurchased number of items purchased
+	 * @param timePurchased   when the purchase was made
+	 */
+	public Transaction(Product item, int amountPurchased, Date timePurchased) {
+		this.item = item.getVersion();
 		this.amountPurchased = amountPurchased;
-		this.timePurchased = date;
+		this.timePurchased = timePurchased;
 	}
 
 	/**
@@ -61,22 +70,23 @@ public class Transaction implements Serializable {
 	}
 
 	/**
-	 * @return the total price of purchase
+	 * @return the total price of purchase in cents
 	 */
-	public double getTotalPrice() {
-		return item.getPrice() * amountPurchased;
+	public long getTotalPrice() {
+		return Money.times(item.getPrice(), amountPurchased);
 	}
 
 	/**
 	 * Nicely formatted string for the transaction
 	 */
 	public String toString() {
-		DecimalFormat df = new DecimalFormat("###,##0.00");
-		String output = item.getName() + "\t";
+		StringBuilder output = new StringBuilder(48).append(item.getName()).append('\t');
 		if (item.getName().length() < 8) {
-			output += "\t";
+			output.append('\t');
 		}
-		return output + amountPurchased + "\t$" + df.format(item.getPrice()) + "\t$" + df.format(getTotalPrice());
+		output.append(amountPurchased).append("\t$");
+		Money.append(output, item.getPrice()).append("\t$");
+		return Money.append(output, getTotalPrice()).toString();
 	}
 
 	public int compareTo(Date date) {
@@ -0,0 +1,62 @@
+package business.entities.views;
+
+import java.util.Date;
+
+import business.entities.Member;
+
+/**
+ * Read only view of a member for listings
+ * 
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public final class MemberView extends View<Member> {
+
+	MemberView() {
+	}
+
+	/**
+	 * @return the member id
+	 */
+	public int getId() {
+		return entity().getId();
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return entity().getName();
+	}
+
+	/**
+	 * @return the address
+	 */
+	public String getAddress() {
+		return entity().getAddress();
+	}
+
+	/**
+	 * @return the phone number
+	 */
+	public String getPhoneNumber() {
+		return entity().getPhoneNumber();
+	}
+
+	/**
+	 * The member's date is not handed out, a copy is made when this is called
+	 * 
+	 * @return the join date
+	 */
+	public Date getJoinDate() {
+		Date joinDate = entity().getJoinDate();
+		return joinDate == null ? null : new Date(joinDate.getTime());
+	}
+
+	/**
+	 * @return the fees paid in cents
+	 */
+	public long getFees() {
+		return entity().getFees();
+	}
+}
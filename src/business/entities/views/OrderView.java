@@ -0,0 +1,56 @@
+package business.entities.views;
+
+import java.util.Date;
+
+import business.entities.Order;
+
+/**
+ * Read only view of an order for listings. The ordered product's name and id
+ * are read through the order, the product is not copied.
+ * 
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public final class OrderView extends View<Order> {
+
+	OrderView() {
+	}
+
+	/**
+	 * @return the order id
+	 */
+	public int getOrderId() {
+		return entity().getOrderId();
+	}
+
+	/**
+	 * @return the quantity ordered
+	 */
+	public int getQuantity() {
+		return entity().getQuantity();
+	}
+
+	/**
+	 * @return name of the product ordered
+	 */
+	public String getProductName() {
+		return entity().getOrderItem().getName();
+	}
+
+	/**
+	 * @return id of the product ordered
+	 */
+	public String getProductId() {
+		return entity().getOrderItem().getId();
+	}
+
+	/**
+	 * The order's date is not handed out, a copy is made when this is called
+	 * 
+	 * @return the date the order was placed
+	 */
+	public Date getCreatedDate() {
+		Date createdDate = entity().getCreatedDate();
+		return createdDate == null ? null : new Date(createdDate.getTime());
+	}
+}
@@ -0,0 +1,50 @@
+package business.entities.views;
+
+import business.entities.Product;
+
+/**
+ * Read only view of a product for listings
+ * 
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public final class ProductView extends View<Product> {
+
+	ProductView() {
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return entity().getName();
+	}
+
+	/**
+	 * @return the product id
+	 */
+	public String getId() {
+		return entity().getId();
+	}
+
+	/**
+	 * @return the stock
+	 */
+	public int getStock() {
+		return entity().getStock();
+	}
+
+	/**
+	 * @return the price in cents
+	 */
+	public long getPrice() {
+		return entity().getPrice();
+	}
+
+	/**
+	 * @return the reorder level
+	 */
+	public int getReOrderLevel() {
+		return entity().getReOrderLevel();
+	}
+}
@@ -0,0 +1,31 @@
+package business.entities.views;
+
+/**
+ * Read only view of a store entity. Views are flyweights: a listing moves one
+ * view from entity to entity instead of copying each entity, so a view is only
+ * valid until the iterator that returned it moves on. Values read from a view
+ * are read straight from the entity.
+ * 
+ * @author Vincent Peterson, Michael Olson
+ *
+ * @param <T> the type of entity viewed
+ */
+public abstract class View<T> {
+	private T entity;
+
+	/**
+	 * Points the view at an entity
+	 * 
+	 * @param entity the entity to view
+	 */
+	void moveTo(T entity) {
+		this.entity = entity;
+	}
+
+	/**
+	 * @return the entity viewed
+	 */
+	T entity() {
+		return entity;
+	}
+}
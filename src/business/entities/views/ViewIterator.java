@@ -0,0 +1,66 @@
+package business.entities.views;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import business.entities.Member;
+import business.entities.Order;
+import business.entities.Product;
+
+/**
+ * Iterates over entities as read only views. Every call to next returns the
+ * same view object pointed at the next entity, nothing is copied or allocated
+ * per entity.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ * @param <T> the type of entity
+ * @param <V> the type of view
+ */
+public class ViewIterator<T, V extends View<T>> implements Iterator<V> {
+	private Iterator<T> iterator;
+	private V view;
+
+	private ViewIterator(Iterator<T> iterator, V view) {
+		this.iterator = iterator;
+		this.view = view;
+	}
+
+	/**
+	 * @param iterator iterator over products
+	 * @return iterator over views of the products
+	 */
+	public static ViewIterator<Product, ProductView> ofProducts(Iterator<Product> iterator) {
+		return new ViewIterator<Product, ProductView>(iterator, new ProductView());
+	}
+
+	/**
+	 * @param iterator iterator over members
+	 * @return iterator over views of the members
+	 */
+	public static ViewIterator<Member, MemberView> ofMembers(Iterator<Member> iterator) {
+		return new ViewIterator<Member, MemberView>(iterator, new MemberView());
+	}
+
+	/**
+	 * @param iterator iterator over orders
+	 * @return iterator over views of the orders
+	 */
+	public static ViewIterator<Order, OrderView> ofOrders(Iterator<Order> iterator) {
+		return new ViewIterator<Order, OrderView>(iterator, new OrderView());
+	}
+
+	@Override
+	public boolean hasNext() {
+		return iterator.hasNext();
+	}
+
+	@Override
+	public V next() {
+		if (!iterator.hasNext()) {
+			throw new NoSuchElementException("No such element");
+		}
+		view.moveTo(iterator.next());
+		return view;
+	}
+}
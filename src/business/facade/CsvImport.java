@@ -0,0 +1,286 @@
+package business.facade;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import business.entities.Money;
+
+/**
+ * Reads the rows of a CSV file into requests for a bulk import. The file is
+ * memory mapped and cut into chunks at line ends. The chunks are parsed and
+ * validated on all cores a few chunks ahead of the caller, which gets the rows
+ * in file order. Only the chunks in between are held here; the store keeps the
+ * requests of the whole file until it adds them.
+ *
+ * Values are separated by commas, a value in double quotes may hold commas and
+ * two double quotes in it stand for one. Blank lines, lines starting with #
+ * and a first line starting with the header name are skipped.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+class CsvImport {
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final String HEADER = "name";
+
+	/**
+	 * Turns the values of a row into a request
+	 *
+	 */
+	interface RowParser {
+		/**
+		 * Parses and validates a row
+		 *
+		 * @param values the values of the row
+		 * @return the request
+		 * @throws IllegalArgumentException if a value is not valid
+		 */
+		Request parse(List<String> values);
+	}
+
+	/**
+	 * Gets the rows of a file in file order
+	 *
+	 */
+	interface RowHandler {
+		/**
+		 * Handles a row that was read
+		 *
+		 * @param line    the line number
+		 * @param request the request read from it
+		 */
+		void row(int line, Request request);
+
+		/**
+		 * Handles a line that could not be read
+		 *
+		 * @param line    the line number
+		 * @param message what is wrong with it
+		 */
+		void error(int line, String message);
+	}
+
+	/**
+	 * The rows of one chunk of the file, numbered from the start of the chunk.
+	 * A line that could not be read has an error and no request.
+	 *
+	 */
+	private static class Chunk {
+		private List<Integer> lines = new ArrayList<Integer>();
+		private List<Request> requests = new ArrayList<Request>();
+		private List<String> errors = new ArrayList<String>();
+		private int lineCount;
+
+		private void add(int line, Request request, String error) {
+			lines.add(line);
+			requests.add(request);
+			errors.add(error);
+		}
+	}
+
+	/**
+	 * Reads a file, handing its rows to a handler on the calling thread
+	 *
+	 * @param fileName the file
+	 * @param columns  number of values of every row
+	 * @param parser   turns a row into a request
+	 * @param handler  gets the rows and the lines that could not be read
+	 * @throws IOException if the file cannot be read
+	 */
+	static void read(String fileName, int columns, RowParser parser, RowHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(fileName + " is too large to import at once");
+			}
+			MappedByteBuffer file = channel.map(MapMode.READ_ONLY, 0, size);
+			int ahead = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+			Queue<CompletableFuture<Chunk>> parsing = new ArrayDeque<CompletableFuture<Chunk>>();
+			int start = 0;
+			int firstLine = 1;
+			while (start < size || !parsing.isEmpty()) {
+				while (start < size && parsing.size() < ahead) {
+					int end = (int) Math.min(size, (long) start + CHUNK_SIZE);
+					while (end < size && file.get(end - 1) != '\n') {
+						end++;
+					}
+					byte[] bytes = new byte[end - start];
+					boolean first = start == 0;
+					file.get(start, bytes);
+					parsing.add(CompletableFuture.supplyAsync(() -> parse(bytes, first, columns, parser)));
+					start = end;
+				}
+				Chunk chunk = parsing.remove().join();
+				for (int index = 0; index < chunk.lines.size(); index++) {
+					int line = firstLine + chunk.lines.get(index);
+					if (chunk.errors.get(index) != null) {
+						handler.error(line, chunk.errors.get(index));
+					} else {
+						handler.row(line, chunk.requests.get(index));
+					}
+				}
+				firstLine += chunk.lineCount;
+			}
+		}
+	}
+
+	/**
+	 * Parses a product row of name, id, stock, price and reorder level
+	 *
+	 * @param values the values of the row
+	 * @return the request to add the product
+	 */
+	static Request product(List<String> values) {
+		Request request = new Request();
+		request.setProductName(text(values.get(0), "name"));
+		request.setProductId(text(values.get(1), "id"));
+		request.setProductStock(count(values.get(2), "stock"));
+		request.setProductPrice(amount(values.get(3), "price"));
+		request.setProductReOrderLevel(count(values.get(4), "reorder level"));
+		return request;
+	}
+
+	/**
+	 * Parses a member row of name, address, phone number and fee paid. The
+	 * members join when they are parsed.
+	 *
+	 * @param values the values of the row
+	 * @return the request to enroll the member
+	 */
+	static Request member(List<String> values) {
+		Request request = new Request();
+		request.setMemberName(text(values.get(0), "name"));
+		request.setMemberAddress(values.get(1));
+		request.setMemberPhoneNumber(values.get(2));
+		request.setMemberFees(amount(values.get(3), "fee"));
+		request.setMemberJoinDate(new Date());
+		return request;
+	}
+
+	/**
+	 * Parses the rows of one chunk
+	 *
+	 * @param bytes   the chunk, ending at a line end or the end of the file
+	 * @param first   whether this is the first chunk, which may have a header
+	 * @param columns number of values of every row
+	 * @param parser  turns a row into a request
+	 * @return the rows of the chunk
+	 */
+	private static Chunk parse(byte[] bytes, boolean first, int columns, RowParser parser) {
+		Chunk chunk = new Chunk();
+		List<String> values = new ArrayList<String>(columns);
+		byte[] value = new byte[256];
+		int position = 0;
+		int end = bytes.length;
+		while (position < end) {
+			int line = chunk.lineCount++;
+			int lineEnd = position;
+			while (lineEnd < end && bytes[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			int next = lineEnd + 1;
+			if (lineEnd > position && bytes[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			if (lineEnd == position || bytes[position] == '#') {
+				position = next;
+				continue;
+			}
+			values.clear();
+			boolean closed = true;
+			while (true) {
+				int length = 0;
+				if (position < lineEnd && bytes[position] == '"') {
+					closed = false;
+					for (position++; position < lineEnd; position++) {
+						byte current = bytes[position];
+						if (current == '"') {
+							position++;
+							if (position == lineEnd || bytes[position] != '"') {
+								closed = true;
+								break;
+							}
+						}
+						value = grow(value, length);
+						value[length++] = current;
+					}
+				}
+				for (; position < lineEnd && bytes[position] != ','; position++) {
+					value = grow(value, length);
+					value[length++] = bytes[position];
+				}
+				values.add(new String(value, 0, length, StandardCharsets.UTF_8));
+				if (position >= lineEnd) {
+					break;
+				}
+				position++;
+			}
+			position = next;
+			if (first && line == 0 && values.get(0).trim().equalsIgnoreCase(HEADER)) {
+				continue;
+			}
+			if (!closed) {
+				chunk.add(line, null, "unclosed quote");
+			} else if (values.size() != columns) {
+				chunk.add(line, null, "expected " + columns + " values");
+			} else {
+				try {
+					chunk.add(line, parser.parse(values), null);
+				} catch (IllegalArgumentException iae) {
+					chunk.add(line, null, iae.getMessage());
+				}
+			}
+		}
+		return chunk;
+	}
+
+	private static byte[] grow(byte[] value, int length) {
+		return length < value.length ? value : Arrays.copyOf(value, value.length * 2);
+	}
+
+	private static String text(String value, String field) {
+		if (value.trim().isEmpty()) {
+			throw new IllegalArgumentException("no " + field);
+		}
+		return value;
+	}
+
+	private static int count(String value, String field) {
+		int count;
+		try {
+			count = Integer.parseInt(value.trim());
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException(field + " is not a number");
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException(field + " is negative");
+		}
+		return count;
+	}
+
+	private static long amount(String value, String field) {
+		long amount;
+		try {
+			amount = Money.parse(value.trim());
+		} catch (NumberFormatException | ArithmeticException e) {
+			throw new IllegalArgumentException(field + " is not an amount");
+		}
+		if (amount < 0) {
+			throw new IllegalArgumentException(field + " is negative");
+		}
+		return amount;
+	}
+}
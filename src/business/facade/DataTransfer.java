@@ -12,15 +12,15 @@ public abstract class DataTransfer {
 	private String memberAddress;
 	private String memberPhoneNumber;
 	private Date memberJoinDate;
-	private double memberFees;
+	private long memberFees;
 	private int orderId;
 	private Date orderCreatedDate;
 	private int orderQuantity;
-	private double orderTotalPrice;
+	private long orderTotalPrice;
 	private String productName;
 	private String productId;
 	private int productStock;
-	private double productPrice;
+	private long productPrice;
 	private int productReOrderLevel;
 
 	public DataTransfer() {
@@ -31,7 +31,7 @@ public abstract class DataTransfer {
 		memberFees = 0;
 		orderId = 0;
 		orderCreatedDate = new Date();
-		orderTotalPrice = 0.0;
+		orderTotalPrice = 0;
 		productName = "none";
 		productId = "none";
 		productStock = 0;
@@ -103,11 +103,11 @@ public abstract class DataTransfer {
 		this.memberJoinDate = memberJoinDate;
 	}
 
-	public double getMemberFees() {
+	public long getMemberFees() {
 		return memberFees;
 	}
 
-	public void setMemberFees(double memberFees) {
+	public void setMemberFees(long memberFees) {
 		this.memberFees = memberFees;
 	}
 
@@ -127,11 +127,11 @@ public abstract class DataTransfer {
 		this.orderCreatedDate = orderCreatedDate;
 	}
 
-	public double getOrderTotalPrice() {
+	public long getOrderTotalPrice() {
 		return orderTotalPrice;
 	}
 
-	public void setOrderTotalPrice(double orderTotalPrice) {
+	public void setOrderTotalPrice(long orderTotalPrice) {
 		this.orderTotalPrice = orderTotalPrice;
 	}
 
@@ -159,11 +159,11 @@ public abstract class DataTransfer {
 		this.productStock = productStock;
 	}
 
-	public double getProductPrice() {
+	public long getProductPrice() {
 		return productPrice;
 	}
 
-	public void setProductPrice(double productPrice) {
+	public void setProductPrice(long productPrice) {
 		this.productPrice = productPrice;
 	}
 
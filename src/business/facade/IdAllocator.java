@@ -0,0 +1,132 @@
+package business.facade;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out member or order ids without locking. Each thread takes a block of
+ * ids from a shared atomic counter and gives them out one by one, so threads
+ * only touch the shared counter once per block. Ids are unique but threads
+ * working at the same time get them out of order.
+ *
+ * The store keeps one allocator for members and one for orders and writes the
+ * next id of each to the snapshot header.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+class IdAllocator {
+	private static final int BLOCK_SIZE = 64;
+
+	private AtomicInteger next;
+	private volatile int reserved;
+	// the id following the highest id handed out from blocks no longer listed
+	private AtomicInteger retired = new AtomicInteger();
+	// the blocks threads are handing out ids from
+	private Queue<Block> blocks = new ConcurrentLinkedQueue<Block>();
+	private ThreadLocal<Block> block = ThreadLocal.withInitial(Block::new);
+
+	/**
+	 * The block of ids a thread hands out from. Only the thread changes it, peek
+	 * reads how far it got from other threads.
+	 *
+	 */
+	private static class Block {
+		private WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+		private AtomicInteger next = new AtomicInteger();
+		private int end;
+		private boolean listed;
+
+		/**
+		 * @return true if the thread of the block has ended
+		 */
+		boolean isOrphaned() {
+			Thread thread = owner.get();
+			return thread == null || !thread.isAlive();
+		}
+	}
+
+	/**
+	 * Creates an allocator
+	 *
+	 * @param first the first id to give out
+	 */
+	public IdAllocator(int first) {
+		next = new AtomicInteger(first);
+		reserved = first;
+	}
+
+	/**
+	 * Hands out the next id of the calling thread's block, taking a new block
+	 * when it runs out. Only blocks that still have ids left are listed, a used
+	 * up block is dropped from the list until its thread takes a new one.
+	 *
+	 * @return an id not given out before
+	 */
+	public int allocate() {
+		Block current = block.get();
+		int id = current.next.get();
+		if (!current.listed || id == current.end) {
+			if (current.listed) {
+				retire(current.end);
+				blocks.remove(current);
+			}
+			id = next.getAndAdd(BLOCK_SIZE);
+			current.end = id + BLOCK_SIZE;
+			current.next.set(id);
+			current.listed = true;
+			blocks.add(current);
+		}
+		// only this thread writes the block, peek just needs to see the value
+		current.next.lazySet(id + 1);
+		return id;
+	}
+
+	/**
+	 * Makes sure ids handed out from now on are above an id that is in use. Used
+	 * while replaying the journal, before any id is allocated.
+	 *
+	 * @param id the id in use
+	 */
+	public void reserve(int id) {
+		next.accumulateAndGet(id + 1, Math::max);
+		if (id >= reserved) {
+			reserved = id + 1;
+		}
+	}
+
+	/**
+	 * Gets the id following the highest id given out, which is what the next
+	 * allocator should start from. Ids left in the blocks of threads are not
+	 * counted, so they are given out again after a restart instead of being
+	 * lost. The blocks of threads that have ended are dropped from the list.
+	 * Ids allocated at the same time may or may not be counted.
+	 *
+	 * @return the next id
+	 */
+	public int peek() {
+		int highest = Math.max(reserved, retired.get());
+		for (Iterator<Block> listed = blocks.iterator(); listed.hasNext();) {
+			Block current = listed.next();
+			int handedOut = current.next.get();
+			highest = Math.max(highest, handedOut);
+			if (current.isOrphaned()) {
+				retire(handedOut);
+				listed.remove();
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Counts the ids handed out from a block that is dropped from the list
+	 *
+	 * @param handedOut the id following the highest id handed out from it
+	 */
+	private void retire(int handedOut) {
+		retired.accumulateAndGet(handedOut, Math::max);
+	}
+}
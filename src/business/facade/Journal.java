@@ -0,0 +1,652 @@
+package business.facade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Append only log of the operations that changed the store since the last
+ * snapshot. Each record holds the operation, the time it was made and the
+ * request fields the operation needs, so replaying the records against the
+ * snapshot rebuilds the store. Member and order ids handed out by an operation
+ * are recorded too, so replay gives out the same ids even though operations on
+ * different members and products may be logged in a different order than they
+ * ran. The file starts with a version and the epoch of the snapshot it belongs
+ * to. Taking a new snapshot writes a mark with the new epoch, the records after
+ * the mark belong to the new snapshot, so the journal is complete for the old
+ * snapshot until the new one is safely on disk. A journal that has neither the
+ * epoch of the snapshot in its header nor a mark for it is ignored. Records may
+ * be written by several threads at once, their records are written to the file
+ * together.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+class Journal implements Closeable {
+	public static final int ENROLL_MEMBER = 1;
+	public static final int REMOVE_MEMBER = 2;
+	public static final int ADD_PRODUCT = 3;
+	public static final int CHECKOUT_MEMBER = 4;
+	public static final int CHECK_FOR_ORDER = 5;
+	public static final int PROCESS_SHIPMENT = 6;
+	public static final int CHANGE_PRODUCT_PRICE = 7;
+	public static final int RENAME_PRODUCT = 8;
+	public static final int MARK = 9;
+
+	private static final int MAGIC = 0x534A524E;
+	private static final int VERSION = 1;
+	private static final int BATCH_SIZE = 64 * 1024;
+	private static final int HEADER_LENGTH = Integer.BYTES + Short.BYTES + Long.BYTES;
+	private static final ThreadLocal<Record> RECORDS = ThreadLocal.withInitial(Record::new);
+	private FileOutputStream file;
+	private FileChannel channel;
+	private ReentrantLock appending = new ReentrantLock();
+	private Queue<Record> pending = new ConcurrentLinkedQueue<Record>();
+	private List<Record> batch = new ArrayList<Record>();
+	private ByteBuffer output = ByteBuffer.allocateDirect(BATCH_SIZE);
+	// end of the last record written and number of records, changed while
+	// holding appending
+	private volatile long end;
+	private volatile int size;
+	private int sizeAtMark;
+
+	private Journal(FileOutputStream file, long end) {
+		this.file = file;
+		channel = file.getChannel();
+		this.end = end;
+	}
+
+	/**
+	 * Starts an empty journal for the snapshot with the given epoch, replacing
+	 * anything in the file
+	 *
+	 * @param fileName journal file
+	 * @param epoch    epoch of the snapshot
+	 * @return the journal
+	 * @throws IOException file error
+	 */
+	public static Journal create(String fileName, long epoch) throws IOException {
+		FileOutputStream file = new FileOutputStream(fileName);
+		try {
+			DataOutputStream header = new DataOutputStream(new BufferedOutputStream(file));
+			writeHeader(header, epoch);
+			header.flush();
+		} catch (IOException ioe) {
+			file.close();
+			throw ioe;
+		}
+		return new Journal(file, HEADER_LENGTH);
+	}
+
+	/**
+	 * Reopens a replayed journal for appending. Anything after the last complete
+	 * record is cut off first.
+	 *
+	 * @param fileName journal file
+	 * @param reader   the reader that replayed the file
+	 * @return the journal
+	 * @throws IOException file error
+	 */
+	public static Journal append(String fileName, Reader reader) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+			file.setLength(reader.getValidLength());
+		}
+		Journal journal = new Journal(new FileOutputStream(fileName, true), reader.getValidLength());
+		journal.size = reader.getCount();
+		return journal;
+	}
+
+	/**
+	 * Appends a record and writes it to the file. The record is encoded in a
+	 * buffer of the calling thread, then handed to whichever thread is writing:
+	 * records that come in while one batch is written go out together in the
+	 * next one, so threads logging at the same time share the lock and the
+	 * write instead of taking turns. Returns once the record is in the file.
+	 *
+	 * @param operation one of the operation constants
+	 * @param time      when the operation was made
+	 * @param request   the request of the operation
+	 * @param id        the member or order id the operation handed out, 0 if none
+	 * @throws IOException file error
+	 */
+	public void write(int operation, Date time, Request request, int id) throws IOException {
+		Record record = RECORDS.get();
+		DataOutputStream output = record.start(true);
+		output.writeByte(operation);
+		output.writeLong(time.getTime());
+		output.writeInt(id);
+		switch (operation) {
+		case ENROLL_MEMBER:
+			writeString(output, request.getMemberName());
+			writeString(output, request.getMemberAddress());
+			writeString(output, request.getMemberPhoneNumber());
+			output.writeLong(request.getMemberJoinDate().getTime());
+			output.writeLong(request.getMemberFees());
+			break;
+		case REMOVE_MEMBER:
+			output.writeInt(request.getMemberId());
+			break;
+		case ADD_PRODUCT:
+			writeString(output, request.getProductName());
+			writeString(output, request.getProductId());
+			output.writeInt(request.getProductStock());
+			output.writeLong(request.getProductPrice());
+			output.writeInt(request.getProductReOrderLevel());
+			break;
+		case CHECKOUT_MEMBER:
+			output.writeInt(request.getMemberId());
+			writeString(output, request.getProductId());
+			output.writeInt(request.getQuantity());
+			break;
+		case CHECK_FOR_ORDER:
+			writeString(output, request.getProductId());
+			break;
+		case PROCESS_SHIPMENT:
+			output.writeInt(request.getOrderId());
+			break;
+		case CHANGE_PRODUCT_PRICE:
+			writeString(output, request.getProductId());
+			output.writeLong(request.getNewProductPrice());
+			break;
+		case RENAME_PRODUCT:
+			writeString(output, request.getProductId());
+			writeString(output, request.getProductName());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown journal operation " + operation);
+		}
+		append(record);
+	}
+
+	/**
+	 * Marks where the records of a new snapshot start
+	 *
+	 * @param epoch epoch of the new snapshot
+	 * @return position just past the mark
+	 * @throws IOException file error
+	 */
+	public long mark(long epoch) throws IOException {
+		Record record = RECORDS.get();
+		DataOutputStream output = record.start(false);
+		output.writeByte(MARK);
+		output.writeLong(epoch);
+		append(record);
+		sizeAtMark = record.size;
+		return record.end;
+	}
+
+	/**
+	 * Drops the records before a mark once the snapshot of the mark is on disk.
+	 * The records after the mark are copied to a new file which replaces the
+	 * journal, appending goes on in the new file. Records are appended while
+	 * most of them are copied, appending only waits for the last few.
+	 *
+	 * @param fileName journal file
+	 * @param epoch    epoch of the mark
+	 * @param position position returned by mark
+	 * @throws IOException file error, the journal is left as it was
+	 */
+	public void truncate(String fileName, long epoch, long position) throws IOException {
+		Path journalFile = Paths.get(fileName);
+		Path temporary = Paths.get(fileName + ".tmp");
+		try (FileOutputStream copy = new FileOutputStream(temporary.toFile());
+				FileChannel source = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+			DataOutputStream header = new DataOutputStream(copy);
+			writeHeader(header, epoch);
+			header.flush();
+			long copied = transfer(source, position, end, copy.getChannel());
+			copy.getFD().sync();
+			appending.lock();
+			try {
+				transfer(source, copied, end, copy.getChannel());
+				copy.getFD().sync();
+				file.close();
+				Files.move(temporary, journalFile, StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+				file = new FileOutputStream(fileName, true);
+				channel = file.getChannel();
+				end = HEADER_LENGTH + end - position;
+				size -= sizeAtMark;
+				sizeAtMark = 0;
+			} finally {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of records in the journal
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		appending.lock();
+		try {
+			file.close();
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Queues a record and waits until it is written. The thread that gets the
+	 * lock writes every queued record, the others wait for it.
+	 *
+	 * @param record the record, encoded
+	 * @throws IOException file error while writing the batch of the record
+	 */
+	private void append(Record record) throws IOException {
+		if (pending.isEmpty() && appending.tryLock()) {
+			// nobody else is appending, the record is written on its own
+			try {
+				batch.add(record);
+				writeBatch();
+			} finally {
+				release();
+			}
+		} else {
+			pending.add(record);
+		}
+		while (!record.done) {
+			if (appending.tryLock()) {
+				try {
+					if (!record.done) {
+						writePending();
+					}
+				} finally {
+					release();
+				}
+			} else {
+				LockSupport.park(this);
+			}
+		}
+		if (record.failure != null) {
+			throw record.failure;
+		}
+	}
+
+	/**
+	 * Writes every queued record. Called while holding appending.
+	 */
+	private void writePending() {
+		for (Record record = pending.poll(); record != null; record = pending.poll()) {
+			batch.add(record);
+		}
+		writeBatch();
+	}
+
+	/**
+	 * Writes the records of the batch in one write and wakes their threads.
+	 * Called while holding appending.
+	 */
+	private void writeBatch() {
+		long position = end;
+		int count = size;
+		IOException failure = null;
+		try {
+			output.clear();
+			for (Record record : batch) {
+				if (output.remaining() < record.buffer.size()) {
+					drain();
+					if (output.capacity() < record.buffer.size()) {
+						output = ByteBuffer.allocateDirect(record.buffer.size());
+					}
+				}
+				output.put(record.buffer.array(), 0, record.buffer.size());
+				position += record.buffer.size();
+				count += record.counted ? 1 : 0;
+				record.end = position;
+				record.size = count;
+			}
+			drain();
+			end = position;
+			size = count;
+		} catch (IOException ioe) {
+			failure = ioe;
+		} finally {
+			Thread current = Thread.currentThread();
+			for (Record record : batch) {
+				record.failure = failure;
+				record.done = true;
+				if (record.thread != current) {
+					LockSupport.unpark(record.thread);
+				}
+			}
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Writes what the batch buffer holds to the file
+	 *
+	 * @throws IOException file error
+	 */
+	private void drain() throws IOException {
+		output.flip();
+		while (output.hasRemaining()) {
+			channel.write(output);
+		}
+		output.clear();
+	}
+
+	/**
+	 * Releases appending and wakes the thread of the next queued record, which
+	 * may have queued it after the records were taken and gone to sleep
+	 */
+	private void release() {
+		appending.unlock();
+		Record next = pending.peek();
+		if (next != null) {
+			LockSupport.unpark(next.thread);
+		}
+	}
+
+	private static long transfer(FileChannel source, long from, long to, FileChannel target) throws IOException {
+		for (long copied = from; copied < to;) {
+			copied += source.transferTo(copied, to - copied, target);
+		}
+		return to;
+	}
+
+	private static void writeHeader(DataOutputStream output, long epoch) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeShort(VERSION);
+		output.writeLong(epoch);
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+	/**
+	 * A record being appended by a thread. Each thread reuses its own, it only
+	 * appends one record at a time.
+	 *
+	 */
+	private static class Record {
+		private Buffer buffer = new Buffer();
+		private DataOutputStream output = new DataOutputStream(buffer);
+		private Thread thread = Thread.currentThread();
+		private boolean counted;
+		private long end;
+		private int size;
+		private IOException failure;
+		private volatile boolean done;
+
+		/**
+		 * Empties the record for the next one
+		 *
+		 * @param counted true for a record of an operation, false for a mark
+		 * @return the stream to encode the record with
+		 */
+		DataOutputStream start(boolean counted) {
+			buffer.reset();
+			this.counted = counted;
+			failure = null;
+			done = false;
+			return output;
+		}
+	}
+
+	/**
+	 * Byte array stream whose contents can be read without copying them
+	 *
+	 */
+	private static class Buffer extends ByteArrayOutputStream {
+		byte[] array() {
+			return buf;
+		}
+	}
+
+	/**
+	 * A record read back from the journal
+	 *
+	 */
+	public static class Entry {
+		private int operation;
+		private Date time;
+		private int id;
+		private long epoch;
+		private Request request = new Request();
+
+		/**
+		 * @return the operation constant
+		 */
+		public int getOperation() {
+			return operation;
+		}
+
+		/**
+		 * @return when the operation was made
+		 */
+		public Date getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the member or order id the operation handed out, 0 if none
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return the epoch of the snapshot starting at a mark
+		 */
+		public long getEpoch() {
+			return epoch;
+		}
+
+		/**
+		 * @return the request to replay
+		 */
+		public Request getRequest() {
+			return request;
+		}
+	}
+
+	/**
+	 * Reads the records of a journal file in the order they were written
+	 *
+	 */
+	public static class Reader implements Closeable {
+		private CountingInputStream counter;
+		private DataInputStream input;
+		private long epoch;
+		private long validLength;
+		private int count;
+
+		/**
+		 * Opens a journal file and reads its header
+		 *
+		 * @param fileName journal file
+		 * @throws IOException file error or the file is not a journal
+		 */
+		public Reader(String fileName) throws IOException {
+			counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+			input = new DataInputStream(counter);
+			try {
+				if (input.readInt() != MAGIC) {
+					throw new IOException(fileName + " is not a store journal");
+				}
+				int version = input.readShort();
+				if (version != VERSION) {
+					throw new IOException("Unsupported store journal version " + version);
+				}
+				epoch = input.readLong();
+			} catch (IOException ioe) {
+				input.close();
+				throw ioe;
+			}
+			validLength = counter.position;
+		}
+
+		/**
+		 * @return epoch of the snapshot the journal belongs to
+		 */
+		public long getEpoch() {
+			return epoch;
+		}
+
+		/**
+		 * @return length of the file up to the end of the last complete record
+		 */
+		public long getValidLength() {
+			return validLength;
+		}
+
+		/**
+		 * @return number of complete records read
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Reads the next record or mark. A record cut short by a crash ends the
+		 * journal.
+		 *
+		 * @return the record or null at the end of the journal
+		 * @throws IOException file error
+		 */
+		public Entry next() throws IOException {
+			Entry entry = new Entry();
+			Request request = entry.request;
+			try {
+				entry.operation = input.readUnsignedByte();
+				if (entry.operation == MARK) {
+					entry.epoch = input.readLong();
+					validLength = counter.position;
+					return entry;
+				}
+				entry.time = new Date(input.readLong());
+				entry.id = input.readInt();
+				switch (entry.operation) {
+				case ENROLL_MEMBER:
+					request.setMemberName(readString());
+					request.setMemberAddress(readString());
+					request.setMemberPhoneNumber(readString());
+					request.setMemberJoinDate(new Date(input.readLong()));
+					request.setMemberFees(input.readLong());
+					break;
+				case REMOVE_MEMBER:
+					request.setMemberId(input.readInt());
+					break;
+				case ADD_PRODUCT:
+					request.setProductName(readString());
+					request.setProductId(readString());
+					request.setProductStock(input.readInt());
+					request.setProductPrice(input.readLong());
+					request.setProductReOrderLevel(input.readInt());
+					break;
+				case CHECKOUT_MEMBER:
+					request.setMemberId(input.readInt());
+					request.setProductId(readString());
+					request.setQuantity(input.readInt());
+					break;
+				case CHECK_FOR_ORDER:
+					request.setProductId(readString());
+					break;
+				case PROCESS_SHIPMENT:
+					request.setOrderId(input.readInt());
+					break;
+				case CHANGE_PRODUCT_PRICE:
+					request.setProductId(readString());
+					request.setNewProductPrice(input.readLong());
+					break;
+				case RENAME_PRODUCT:
+					request.setProductId(readString());
+					request.setProductName(readString());
+					break;
+				default:
+					return null;
+				}
+			} catch (EOFException eofe) {
+				return null;
+			}
+			validLength = counter.position;
+			count++;
+			return entry;
+		}
+
+		@Override
+		public void close() throws IOException {
+			input.close();
+		}
+
+		private String readString() throws IOException {
+			if (input.readBoolean()) {
+				return input.readUTF();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Keeps track of how far into the file the reader is
+	 *
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long position;
+
+		CountingInputStream(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value >= 0) {
+				position++;
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long count) throws IOException {
+			long skipped = super.skip(count);
+			position += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package business.facade;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, failure count and latency histogram of one Store operation.
+ * Latencies are counted in buckets that split every power of two nanoseconds
+ * into 32 buckets of equal width, so any latency from a nanosecond to hours is
+ * kept within about 3% and recording one is an index computation and a few
+ * increments, without locking or allocating.
+ *
+ * Reading the clock costs about as much as the cheapest operations, so an
+ * operation can be timed on a random sample of its calls. Calls and failures
+ * are always counted, the latencies are those of the sampled calls.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+	private static final double NANOS_PER_MICRO = 1000.0;
+	private static final long UNTIMED = Long.MIN_VALUE;
+
+	private String name;
+	private int sampling;
+	private LongAdder calls = new LongAdder();
+	private LongAdder failures = new LongAdder();
+	private LongAdder timed = new LongAdder();
+	private LongAdder totalNanos = new LongAdder();
+	private LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Creates the metrics of an operation
+	 *
+	 * @param name     name of the operation
+	 * @param sampling one in how many calls is timed, 1 to time every call
+	 */
+	OperationMetrics(String name, int sampling) {
+		this.name = name;
+		this.sampling = sampling;
+	}
+
+	/**
+	 * @return name of the operation
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Starts a run of the operation
+	 *
+	 * @return the value to pass to record
+	 */
+	long start() {
+		if (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+			return UNTIMED;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records one run of the operation
+	 *
+	 * @param started what start returned when the operation started
+	 * @param success whether the operation succeeded
+	 */
+	void record(long started, boolean success) {
+		calls.increment();
+		if (!success) {
+			failures.increment();
+		}
+		if (started == UNTIMED) {
+			return;
+		}
+		long nanos = Math.max(0, System.nanoTime() - started);
+		timed.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		histogram.incrementAndGet(bucket(nanos));
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		long count = timed.sum();
+		return count == 0 ? 0 : totalNanos.sum() / NANOS_PER_MICRO / count;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return maxNanos.get() / NANOS_PER_MICRO;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return percentile(0.5) / NANOS_PER_MICRO;
+	}
+
+	@Override
+	public double getP99Micros() {
+		return percentile(0.99) / NANOS_PER_MICRO;
+	}
+
+	@Override
+	public double getP999Micros() {
+		return percentile(0.999) / NANOS_PER_MICRO;
+	}
+
+	@Override
+	public void reset() {
+		calls.reset();
+		failures.reset();
+		timed.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		for (int index = 0; index < BUCKETS; index++) {
+			histogram.set(index, 0);
+		}
+	}
+
+	/**
+	 * Appends a line with the counts and latencies in microseconds
+	 *
+	 * @param builder where to append
+	 * @return the builder
+	 */
+	StringBuilder appendTo(StringBuilder builder) {
+		return builder.append(String.format(
+				"%-18s calls %10d failures %8d mean %10.1f p50 %10.1f p99 %10.1f p999 %10.1f max %10.1f us%n", name,
+				getCalls(), getFailures(), getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(),
+				getMaxMicros()));
+	}
+
+	/**
+	 * Finds the latency below which a fraction of the runs took, as the upper
+	 * bound of its bucket
+	 *
+	 * @param fraction the fraction of runs, 0.99 for the 99th percentile
+	 * @return the latency in nanoseconds, 0 if the operation never ran
+	 */
+	private long percentile(double fraction) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			counts[index] = histogram.get(index);
+			total += counts[index];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			seen += counts[index];
+			if (seen >= rank) {
+				return Math.min(upperBound(index), maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	/**
+	 * Gets the bucket of a latency. Latencies below 32 have a bucket each, above
+	 * that the highest bit picks the power of two and the next five bits the
+	 * bucket within it.
+	 *
+	 * @param nanos the latency
+	 * @return index of its bucket
+	 */
+	private static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @param index index of a bucket
+	 * @return the highest latency counted in the bucket
+	 */
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
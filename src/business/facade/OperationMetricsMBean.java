@@ -0,0 +1,49 @@
+package business.facade;
+
+/**
+ * Management interface of the metrics of one Store operation
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public interface OperationMetricsMBean {
+	/**
+	 * @return number of times the operation ran
+	 */
+	long getCalls();
+
+	/**
+	 * @return number of times the operation failed
+	 */
+	long getFailures();
+
+	/**
+	 * @return mean latency in microseconds
+	 */
+	double getMeanMicros();
+
+	/**
+	 * @return highest latency in microseconds
+	 */
+	double getMaxMicros();
+
+	/**
+	 * @return median latency in microseconds
+	 */
+	double getP50Micros();
+
+	/**
+	 * @return 99th percentile latency in microseconds
+	 */
+	double getP99Micros();
+
+	/**
+	 * @return 99.9th percentile latency in microseconds
+	 */
+	double getP999Micros();
+
+	/**
+	 * Starts counting again from zero
+	 */
+	void reset();
+}
@@ -0,0 +1,48 @@
+package business.facade;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a listing along with the token to ask for the next page
+ * 
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class Page {
+	private List<Result> results = new ArrayList<Result>();
+	private String nextToken;
+
+	/**
+	 * @return the results on the page
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/**
+	 * Adds a result to the page
+	 * 
+	 * @param result the result
+	 */
+	public void addResult(Result result) {
+		results.add(result);
+	}
+
+	/**
+	 * The token to pass in the request for the next page. The token is opaque and
+	 * only good for the listing that handed it out.
+	 * 
+	 * @return the token, null if this is the last page
+	 */
+	public String getNextToken() {
+		return nextToken;
+	}
+
+	/**
+	 * @param nextToken the token for the next page
+	 */
+	public void setNextToken(String nextToken) {
+		this.nextToken = nextToken;
+	}
+}
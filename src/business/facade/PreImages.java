@@ -0,0 +1,76 @@
+package business.facade;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * What entries keyed by id were when a save froze the store. While a save
+ * copies the store, every change of an entry first records the value it
+ * replaces, the first change of an id wins. The save reads the live entries
+ * and takes the recorded value of every id changed since, so the store goes
+ * on changing while it is copied.
+ *
+ * @param <V> the entries
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+class PreImages<V> {
+	private static final Object ABSENT = new Object();
+
+	private Map<Integer, Object> before = new ConcurrentHashMap<Integer, Object>();
+
+	/**
+	 * Records the value of an id before it changes, unless it changed before
+	 *
+	 * @param id    the id
+	 * @param value the value before the change, null if there was none
+	 */
+	public void record(int id, V value) {
+		before.putIfAbsent(id, value == null ? ABSENT : value);
+	}
+
+	/**
+	 * Gets the value an id had when frozen if it changed since
+	 *
+	 * @param id the id
+	 * @return the value, null if the id has not changed or had no value
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int id) {
+		Object value = before.get(id);
+		return value == ABSENT ? null : (V) value;
+	}
+
+	/**
+	 * Gets the entries as they were when frozen. An entry read from the live
+	 * entries is only taken if its id has not changed, which is checked after
+	 * reading it; ids changed since are taken from the recorded values.
+	 *
+	 * @param live the live entries
+	 * @param id   the id of an entry
+	 * @return the entries when frozen
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> merge(Iterable<V> live, ToIntFunction<V> id) {
+		List<V> frozen = new ArrayList<V>();
+		BitSet taken = new BitSet();
+		for (V value : live) {
+			int key = id.applyAsInt(value);
+			if (!before.containsKey(key)) {
+				frozen.add(value);
+				taken.set(key);
+			}
+		}
+		for (Map.Entry<Integer, Object> entry : before.entrySet()) {
+			if (entry.getValue() != ABSENT && !taken.get(entry.getKey())) {
+				frozen.add((V) entry.getValue());
+			}
+		}
+		return frozen;
+	}
+}
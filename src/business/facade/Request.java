@@ -1,13 +1,19 @@
 package business.facade;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 public class Request extends DataTransfer {
 
-	private double newProductPrice;
+	private long newProductPrice;
 	private Date startDate;
 	private Date endDate;
 	private int quantity;
+	private List<Request> items;
+	private int pageSize;
+	private String pageToken;
 
 	/**
 	 * @return the quantity
@@ -30,11 +36,11 @@ public class Request extends DataTransfer {
 		endDate = new Date();
 	}
 
-	public void setNewProductPrice(double newPrice) {
+	public void setNewProductPrice(long newPrice) {
 		this.newProductPrice = newPrice;
 	}
 
-	public double getNewProductPrice() {
+	public long getNewProductPrice() {
 		return newProductPrice;
 	}
 
@@ -53,4 +59,56 @@ public class Request extends DataTransfer {
 	public void setEndDate(Date endDate) {
 		this.endDate = endDate;
 	}
+
+	/**
+	 * Adds a line to a basket checkout. The list is made when the first line
+	 * is added, requests of single operations have none.
+	 * 
+	 * @param productId the product bought
+	 * @param quantity  amount bought
+	 */
+	public void addItem(String productId, int quantity) {
+		Request item = new Request();
+		item.setProductId(productId);
+		item.setQuantity(quantity);
+		if (items == null) {
+			items = new ArrayList<Request>();
+		}
+		items.add(item);
+	}
+
+	/**
+	 * @return the basket lines, empty if none were added
+	 */
+	public List<Request> getItems() {
+		return items == null ? Collections.<Request>emptyList() : items;
+	}
+
+	/**
+	 * @return number of results on a page, 0 for the default
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @param pageSize number of results on a page
+	 */
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @return token of the previous page, null for the first page
+	 */
+	public String getPageToken() {
+		return pageToken;
+	}
+
+	/**
+	 * @param pageToken token handed out with the previous page
+	 */
+	public void setPageToken(String pageToken) {
+		this.pageToken = pageToken;
+	}
 }
@@ -1,5 +1,9 @@
 package business.facade;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class Result extends DataTransfer {
 	public static final boolean OPERATION_SUCCESSFUL = true;
 	public static final boolean OPERATION_FAILURE = false;
@@ -11,9 +15,12 @@ public class Result extends DataTransfer {
 	public static final int MEMBER_FOUND = 6;
 	public static final int MEMBER_REMOVED = 7;
 	public static final int MEMBER_ADDED = 8;
+	public static final int OUT_OF_STOCK = 9;
+	public static final int INVALID_QUANTITY = 10;
 	private boolean success;
 	private int status = 0;
 	private String message;
+	private List<Result> items;
 
 	public Result() {
 		super();
@@ -43,4 +50,24 @@ public class Result extends DataTransfer {
 		this.message = message;
 	}
 
+	/**
+	 * Adds the result of a basket line to a receipt. The list is made when the
+	 * first line is added, results of single operations have none.
+	 * 
+	 * @param item the line result
+	 */
+	public void addItem(Result item) {
+		if (items == null) {
+			items = new ArrayList<Result>();
+		}
+		items.add(item);
+	}
+
+	/**
+	 * @return the results of the basket lines, empty if none were added
+	 */
+	public List<Result> getItems() {
+		return items == null ? Collections.<Result>emptyList() : items;
+	}
+
 }
@@ -0,0 +1,202 @@
+package business.facade;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Sales of the whole store over a period: revenue and units per product, units
+ * per day and what each member spent in the period. Reports are built in parts
+ * that are merged, so the transactions can be added from several threads with a
+ * part each.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class SalesReport {
+	private Map<String, ProductSales> products = new HashMap<String, ProductSales>();
+	private Map<LocalDate, Long> unitsPerDay = new HashMap<LocalDate, Long>();
+	private Map<Integer, Long> memberSpend = new HashMap<Integer, Long>();
+	private ZoneId zone = ZoneId.systemDefault();
+	private LocalDate day;
+	private long dayStart = Long.MAX_VALUE;
+	private long dayEnd = Long.MIN_VALUE;
+
+	/**
+	 * Sales of one product
+	 *
+	 */
+	public static class ProductSales {
+		private String id;
+		private String name;
+		private long units;
+		private long revenue;
+		// time of the latest sale, the name is the one it was sold under
+		private long latest = Long.MIN_VALUE;
+
+		ProductSales(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		/**
+		 * @return the product id as first sold
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return the product name at the time of its latest sale in the period
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return number of items sold
+		 */
+		public long getUnits() {
+			return units;
+		}
+
+		/**
+		 * @return the revenue in cents
+		 */
+		public long getRevenue() {
+			return revenue;
+		}
+	}
+
+	/**
+	 * Adds a transaction to the report
+	 *
+	 * @param memberId the member
+	 * @param time     time of the purchase in epoch millis
+	 * @param amount   number of items purchased
+	 * @param price    price of one item in cents
+	 * @param id       the product id
+	 * @param name     the product name
+	 */
+	void add(int memberId, long time, int amount, long price, String id, String name) {
+		long total = price * amount;
+		String key = Store.key(id);
+		ProductSales sales = products.get(key);
+		if (sales == null) {
+			sales = new ProductSales(id, name);
+			products.put(key, sales);
+		}
+		if (time >= sales.latest) {
+			sales.name = name;
+			sales.latest = time;
+		}
+		sales.units += amount;
+		sales.revenue += total;
+		unitsPerDay.merge(dayOf(time), (long) amount, Long::sum);
+		memberSpend.merge(memberId, total, Long::sum);
+	}
+
+	/**
+	 * Adds another part of the report to this one
+	 *
+	 * @param other the other part
+	 * @return this report
+	 */
+	SalesReport merge(SalesReport other) {
+		for (ProductSales sales : other.products.values()) {
+			ProductSales mine = products.putIfAbsent(Store.key(sales.id), sales);
+			if (mine != null) {
+				mine.units += sales.units;
+				mine.revenue += sales.revenue;
+				if (sales.latest > mine.latest) {
+					mine.name = sales.name;
+					mine.latest = sales.latest;
+				}
+			}
+		}
+		other.unitsPerDay.forEach((date, units) -> unitsPerDay.merge(date, units, Long::sum));
+		other.memberSpend.forEach((memberId, spend) -> memberSpend.merge(memberId, spend, Long::sum));
+		return this;
+	}
+
+	/**
+	 * Sales of a product. Product ids are looked up regardless of case, like in
+	 * the catalog and the sales totals.
+	 *
+	 * @param productId the product id
+	 * @return the sales, null if the product was not sold
+	 */
+	public ProductSales getProductSales(String productId) {
+		return products.get(Store.key(productId));
+	}
+
+	/**
+	 * @return revenue of each product in cents by product id as first sold
+	 */
+	public Map<String, Long> getRevenuePerProduct() {
+		Map<String, Long> revenue = new HashMap<String, Long>();
+		for (ProductSales sales : products.values()) {
+			revenue.put(sales.id, sales.revenue);
+		}
+		return revenue;
+	}
+
+	/**
+	 * @return sales of each product by the lookup key of its id, the id in lower
+	 *         case
+	 */
+	public Map<String, ProductSales> getProductSales() {
+		return Collections.unmodifiableMap(products);
+	}
+
+	/**
+	 * @return items sold per day, in date order
+	 */
+	public SortedMap<LocalDate, Long> getUnitsPerDay() {
+		return Collections.unmodifiableSortedMap(new TreeMap<LocalDate, Long>(unitsPerDay));
+	}
+
+	/**
+	 * @return amount spent by each member in the period in cents by member id
+	 */
+	public Map<Integer, Long> getMemberSpend() {
+		return Collections.unmodifiableMap(memberSpend);
+	}
+
+	/**
+	 * Gets the best selling products by units sold, ties go to the higher revenue
+	 *
+	 * @param count how many products to return
+	 * @return the products, best seller first
+	 */
+	public List<ProductSales> getTopSellers(int count) {
+		List<ProductSales> sellers = new ArrayList<ProductSales>(products.values());
+		sellers.sort(Comparator.comparingLong(ProductSales::getUnits).thenComparingLong(ProductSales::getRevenue)
+				.reversed());
+		return sellers.subList(0, Math.min(count, sellers.size()));
+	}
+
+	/**
+	 * Gets the day of a time. Transactions come mostly in time order, so the last
+	 * day is kept and the time zone is only looked at when the day changes.
+	 *
+	 * @param time the time in epoch millis
+	 * @return the day in the local time zone
+	 */
+	private LocalDate dayOf(long time) {
+		if (time < dayStart || time >= dayEnd) {
+			day = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+			dayStart = day.atStartOfDay(zone).toInstant().toEpochMilli();
+			dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+		}
+		return day;
+	}
+}
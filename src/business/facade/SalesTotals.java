@@ -0,0 +1,264 @@
+package business.facade;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running sales totals kept up to date by every checkout: units and revenue per
+ * product and per day and the spend of each member. The totals are striped
+ * adders, so tills checking out at the same time do not contend on them, and
+ * every query is a single lookup per generation.
+ *
+ * The totals are written to the snapshot, so a store does not add up its whole
+ * history again when it is loaded. They are kept in up to three generations: the
+ * totals of the last snapshot, the sales sealed by a save that is being written
+ * and the live sales made since. A save seals the live sales in constant time
+ * while operations wait, then merges them into the snapshot totals while
+ * operations go on. Queries add up the generations.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class SalesTotals {
+	private volatile Generations generations = new Generations(new Sales(), null, new Sales());
+	private ZoneId zone = ZoneId.systemDefault();
+
+	/**
+	 * Units and revenue of a product or a day
+	 *
+	 */
+	private static class Totals {
+		private LongAdder units = new LongAdder();
+		private LongAdder revenue = new LongAdder();
+	}
+
+	/**
+	 * The sales of one generation
+	 *
+	 */
+	private static class Sales {
+		private Map<String, Totals> products = new ConcurrentHashMap<String, Totals>();
+		private Map<LocalDate, Totals> days = new ConcurrentHashMap<LocalDate, Totals>();
+		private Map<Integer, LongAdder> members = new ConcurrentHashMap<Integer, LongAdder>();
+
+		private void add(String product, LocalDate date, int memberId, long units, long revenue) {
+			add(products.computeIfAbsent(product, key -> new Totals()), units, revenue);
+			add(days.computeIfAbsent(date, key -> new Totals()), units, revenue);
+			addSpend(memberId, revenue);
+		}
+
+		private void addSpend(int memberId, long spend) {
+			members.computeIfAbsent(memberId, member -> new LongAdder()).add(spend);
+		}
+
+		private void addAll(Sales other) {
+			other.products.forEach((product, totals) -> add(products.computeIfAbsent(product, key -> new Totals()),
+					totals.units.sum(), totals.revenue.sum()));
+			other.days.forEach((date, totals) -> add(days.computeIfAbsent(date, key -> new Totals()),
+					totals.units.sum(), totals.revenue.sum()));
+			other.members.forEach((memberId, spend) -> addSpend(memberId, spend.sum()));
+		}
+
+		private static void add(Totals totals, long units, long revenue) {
+			totals.units.add(units);
+			totals.revenue.add(revenue);
+		}
+	}
+
+	/**
+	 * The generations of the totals, replaced as a whole so a query sees all of
+	 * them as they were at one moment
+	 *
+	 */
+	private static class Generations {
+		private final Sales saved;
+		private final Sales sealed;
+		private final Sales live;
+
+		private Generations(Sales saved, Sales sealed, Sales live) {
+			this.saved = saved;
+			this.sealed = sealed;
+			this.live = live;
+		}
+
+		private Sales[] all() {
+			return sealed == null ? new Sales[] { saved, live } : new Sales[] { saved, sealed, live };
+		}
+	}
+
+	/**
+	 * Adds a sale to the totals. The caller holds the read lock of the store, so
+	 * the sale is not added while a save seals the live sales.
+	 *
+	 * @param memberId the member
+	 * @param time     time of the purchase in epoch millis
+	 * @param amount   number of items purchased
+	 * @param price    price of one item in cents
+	 * @param id       the product id
+	 */
+	void add(int memberId, long time, int amount, long price, String id) {
+		generations.live.add(Store.key(id), Instant.ofEpochMilli(time).atZone(zone).toLocalDate(), memberId, amount,
+				price * amount);
+	}
+
+	/**
+	 * Seals the live sales for a save and starts new live sales. Takes constant
+	 * time, called while operations wait.
+	 */
+	void freeze() {
+		Generations current = generations;
+		if (current.sealed != null) {
+			throw new IllegalStateException("Sales totals already frozen");
+		}
+		generations = new Generations(current.saved, current.live, new Sales());
+	}
+
+	/**
+	 * Merges the sealed sales into the totals of the snapshot. Called by the save
+	 * that froze the totals once no sale can be added to the sealed ones, while
+	 * operations go on.
+	 *
+	 * @return the totals when frozen, to be written to the snapshot
+	 */
+	SalesTotals settle() {
+		Generations current = generations;
+		Sales merged = current.saved;
+		if (current.sealed != null) {
+			merged = new Sales();
+			merged.addAll(current.saved);
+			merged.addAll(current.sealed);
+			// only freeze replaces the live sales and saves do not overlap
+			generations = new Generations(merged, null, current.live);
+		}
+		SalesTotals frozen = new SalesTotals();
+		frozen.generations = new Generations(merged, null, new Sales());
+		return frozen;
+	}
+
+	/**
+	 * @param productId the product id
+	 * @return number of items of the product sold
+	 */
+	public long getUnitsSold(String productId) {
+		String key = Store.key(productId);
+		long units = 0;
+		for (Sales sales : generations.all()) {
+			Totals product = sales.products.get(key);
+			units += product == null ? 0 : product.units.sum();
+		}
+		return units;
+	}
+
+	/**
+	 * @param productId the product id
+	 * @return revenue of the product in cents
+	 */
+	public long getRevenue(String productId) {
+		String key = Store.key(productId);
+		long revenue = 0;
+		for (Sales sales : generations.all()) {
+			Totals product = sales.products.get(key);
+			revenue += product == null ? 0 : product.revenue.sum();
+		}
+		return revenue;
+	}
+
+	/**
+	 * @param date the day
+	 * @return number of items sold on the day
+	 */
+	public long getUnitsSold(LocalDate date) {
+		long units = 0;
+		for (Sales sales : generations.all()) {
+			Totals day = sales.days.get(date);
+			units += day == null ? 0 : day.units.sum();
+		}
+		return units;
+	}
+
+	/**
+	 * @param date the day
+	 * @return revenue of the day in cents
+	 */
+	public long getRevenue(LocalDate date) {
+		long revenue = 0;
+		for (Sales sales : generations.all()) {
+			Totals day = sales.days.get(date);
+			revenue += day == null ? 0 : day.revenue.sum();
+		}
+		return revenue;
+	}
+
+	/**
+	 * @param memberId the member id
+	 * @return amount the member has spent in cents
+	 */
+	public long getMemberSpend(int memberId) {
+		long spend = 0;
+		for (Sales sales : generations.all()) {
+			LongAdder member = sales.members.get(memberId);
+			spend += member == null ? 0 : member.sum();
+		}
+		return spend;
+	}
+
+	/**
+	 * Writes the totals of a snapshot, as returned by settle. Layout: count,
+	 * (product key, units, revenue)..., count, (epoch day, units, revenue)...,
+	 * count, (member id, spend)...
+	 *
+	 * @param output where to write the totals
+	 * @throws IOException file error
+	 */
+	void write(DataOutputStream output) throws IOException {
+		Sales saved = generations.saved;
+		output.writeInt(saved.products.size());
+		for (Map.Entry<String, Totals> product : saved.products.entrySet()) {
+			output.writeUTF(product.getKey());
+			output.writeLong(product.getValue().units.sum());
+			output.writeLong(product.getValue().revenue.sum());
+		}
+		output.writeInt(saved.days.size());
+		for (Map.Entry<LocalDate, Totals> day : saved.days.entrySet()) {
+			output.writeLong(day.getKey().toEpochDay());
+			output.writeLong(day.getValue().units.sum());
+			output.writeLong(day.getValue().revenue.sum());
+		}
+		output.writeInt(saved.members.size());
+		for (Map.Entry<Integer, LongAdder> member : saved.members.entrySet()) {
+			output.writeInt(member.getKey());
+			output.writeLong(member.getValue().sum());
+		}
+	}
+
+	/**
+	 * Reads totals written by write
+	 *
+	 * @param input where to read the totals from
+	 * @return the totals
+	 * @throws IOException file error
+	 */
+	static SalesTotals read(DataInputStream input) throws IOException {
+		SalesTotals totals = new SalesTotals();
+		Sales saved = totals.generations.saved;
+		for (int count = input.readInt(); count > 0; count--) {
+			Sales.add(saved.products.computeIfAbsent(input.readUTF(), key -> new Totals()), input.readLong(),
+					input.readLong());
+		}
+		for (int count = input.readInt(); count > 0; count--) {
+			Sales.add(saved.days.computeIfAbsent(LocalDate.ofEpochDay(input.readLong()), key -> new Totals()),
+					input.readLong(), input.readLong());
+		}
+		for (int count = input.readInt(); count > 0; count--) {
+			saved.addSpend(input.readInt(), input.readLong());
+		}
+		return totals;
+	}
+}
@@ -0,0 +1,606 @@
+package business.facade;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import business.entities.Member;
+import business.entities.Order;
+import business.entities.Product;
+import business.entities.ProductTable;
+
+/**
+ * Binary snapshot of the store. The file is a header followed by shards that
+ * are written and read independently: the catalog, the members in ranges of
+ * MEMBER_SHARD_SIZE, the orders and the sales totals. The shards are encoded on several threads
+ * when saving and decoded on several threads while the file is still being
+ * read when loading, so a large store loads in a fraction of the time one
+ * thread takes. Every list is prefixed with its length, product names and ids
+ * are written once in a string table and referred to by index, and dates are
+ * written as epoch millis. Prices and fees are in cents. Transactions are kept
+ * in the transaction history file, the snapshot holds where the history ended
+ * and where each member's newest transaction is.
+ *
+ * Layout:
+ *
+ * <pre>
+ * int magic, short version, long journal epoch, long history end,
+ * int next member id, int next order id
+ * shards:   count, (kind, int length)..., shard bytes...
+ * catalog:  strings, products: count, (name, id, stock, price, reorder level)...
+ * members:  count, (id, name, address, phone, join date, fees, last transaction)...
+ * orders:   strings, count, (id, catalog position + 1 or 0 and product, quantity, created date)...
+ * sales:    as written by SalesTotals.write
+ * strings:  count, UTF string...
+ * </pre>
+ *
+ * A store saved before the binary snapshot is read from its Java serialized
+ * file by Store.load instead.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+class Snapshot {
+	private static final int MAGIC = 0x53544F52;
+	private static final int VERSION = 1;
+	private static final int MEMBER_SHARD_SIZE = 65536;
+	private static final byte CATALOG = 1;
+	private static final byte MEMBERS = 2;
+	private static final byte ORDERS = 3;
+	private static final byte SALES = 4;
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	private long epoch;
+	private long historyEnd;
+	private int nextMemberId;
+	private int nextOrderId;
+	private Collection<Product> products;
+	private Collection<Member> members;
+	private Collection<Order> orders;
+	private SalesTotals sales;
+
+	/**
+	 * Creates a snapshot of the store contents
+	 *
+	 * @param epoch        journal epoch of the snapshot
+	 * @param historyEnd   end of the transaction history
+	 * @param nextMemberId next member id to give out
+	 * @param nextOrderId  next order id to give out
+	 * @param products     the catalog
+	 * @param members      the members
+	 * @param orders       the pending orders
+	 * @param sales        the sales totals
+	 */
+	public Snapshot(long epoch, long historyEnd, int nextMemberId, int nextOrderId, Collection<Product> products,
+			Collection<Member> members, Collection<Order> orders, SalesTotals sales) {
+		this.epoch = epoch;
+		this.historyEnd = historyEnd;
+		this.nextMemberId = nextMemberId;
+		this.nextOrderId = nextOrderId;
+		this.products = products;
+		this.members = members;
+		this.orders = orders;
+		this.sales = sales;
+	}
+
+	/**
+	 * Takes a snapshot of a frozen store, so it can be written while the store
+	 * goes on changing. The products are read from the rows of the frozen
+	 * catalog table, orders are made to refer to them.
+	 *
+	 * @param epoch        journal epoch of the snapshot
+	 * @param historyEnd   end of the transaction history
+	 * @param nextMemberId next member id to give out
+	 * @param nextOrderId  next order id to give out
+	 * @param products     the frozen catalog table
+	 * @param members      copies of the members when frozen
+	 * @param orders       the pending orders when frozen
+	 * @param sales        the sales totals when frozen
+	 * @return the snapshot
+	 */
+	public static Snapshot capture(long epoch, long historyEnd, int nextMemberId, int nextOrderId,
+			ProductTable products, Collection<Member> members, Collection<Order> orders, SalesTotals sales) {
+		Map<Product, Product> versions = new IdentityHashMap<Product, Product>();
+		List<Product> productVersions = new ArrayList<Product>(products.size());
+		for (int ordinal = 0; ordinal < products.size(); ordinal++) {
+			Product version = products.version(ordinal);
+			versions.put(products.get(ordinal), version);
+			productVersions.add(version);
+		}
+		List<Order> orderCopies = new ArrayList<Order>(orders.size());
+		for (Order order : orders) {
+			Product item = versions.get(order.getOrderItem());
+			Date createdDate = order.getCreatedDate();
+			orderCopies.add(new Order(order.getOrderId(), item == null ? copy(order.getOrderItem()) : item,
+					order.getQuantity(), createdDate == null ? null : new Date(createdDate.getTime())));
+		}
+		return new Snapshot(epoch, historyEnd, nextMemberId, nextOrderId, productVersions, members, orderCopies,
+				sales);
+	}
+
+	/**
+	 * @return the journal epoch
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return end of the transaction history when the snapshot was taken
+	 */
+	public long getHistoryEnd() {
+		return historyEnd;
+	}
+
+	/**
+	 * @return the next member id to give out
+	 */
+	public int getNextMemberId() {
+		return nextMemberId;
+	}
+
+	/**
+	 * @return the next order id to give out
+	 */
+	public int getNextOrderId() {
+		return nextOrderId;
+	}
+
+	/**
+	 * @return the products in catalog order
+	 */
+	public Collection<Product> getProducts() {
+		return products;
+	}
+
+	/**
+	 * @return the members
+	 */
+	public Collection<Member> getMembers() {
+		return members;
+	}
+
+	/**
+	 * @return the pending orders
+	 */
+	public Collection<Order> getOrders() {
+		return orders;
+	}
+
+	/**
+	 * @return the sales totals
+	 */
+	public SalesTotals getSales() {
+		return sales;
+	}
+
+	/**
+	 * Checks if a stream starts with a binary snapshot. The stream must support
+	 * mark and is left where it was.
+	 *
+	 * @param input the stream to look at
+	 * @return true if the stream holds a binary snapshot
+	 * @throws IOException file error
+	 */
+	public static boolean matches(InputStream input) throws IOException {
+		input.mark(Integer.BYTES);
+		int magic = 0;
+		for (int index = 0; index < Integer.BYTES; index++) {
+			int value = input.read();
+			if (value < 0) {
+				input.reset();
+				return false;
+			}
+			magic = (magic << 8) | value;
+		}
+		input.reset();
+		return magic == MAGIC;
+	}
+
+	/**
+	 * Writes the snapshot. The shards are encoded in parallel and then written one
+	 * after the other.
+	 *
+	 * @param output where to write the snapshot
+	 * @throws IOException file error
+	 */
+	public void write(DataOutputStream output) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeShort(VERSION);
+		output.writeLong(epoch);
+		output.writeLong(historyEnd);
+		output.writeInt(nextMemberId);
+		output.writeInt(nextOrderId);
+
+		Map<Product, Integer> catalogPositions = new IdentityHashMap<Product, Integer>();
+		for (Product product : products) {
+			catalogPositions.put(product, catalogPositions.size());
+		}
+		List<Shard> shards = new ArrayList<Shard>();
+		shards.add(new Shard(CATALOG, this::writeCatalog));
+		List<Member> range = new ArrayList<Member>();
+		for (Member member : members) {
+			range.add(member);
+			if (range.size() == MEMBER_SHARD_SIZE) {
+				List<Member> full = range;
+				shards.add(new Shard(MEMBERS, shard -> writeMembers(shard, full)));
+				range = new ArrayList<Member>();
+			}
+		}
+		if (!range.isEmpty()) {
+			List<Member> last = range;
+			shards.add(new Shard(MEMBERS, shard -> writeMembers(shard, last)));
+		}
+		shards.add(new Shard(ORDERS, shard -> writeOrders(shard, catalogPositions)));
+		shards.add(new Shard(SALES, sales::write));
+		try {
+			shards.parallelStream().forEach(Shard::encode);
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+
+		writeCount(output, shards.size());
+		for (Shard shard : shards) {
+			output.writeByte(shard.kind);
+			output.writeInt(shard.bytes.length);
+		}
+		for (Shard shard : shards) {
+			output.write(shard.bytes);
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by write
+	 *
+	 * @param input where to read the snapshot from
+	 * @return the snapshot
+	 * @throws IOException file error or unknown format
+	 */
+	public static Snapshot read(DataInputStream input) throws IOException {
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not a store snapshot");
+		}
+		int version = input.readShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported store snapshot version " + version);
+		}
+		long epoch = input.readLong();
+		long historyEnd = input.readLong();
+		int nextMemberId = input.readInt();
+		int nextOrderId = input.readInt();
+		return readShards(input, epoch, historyEnd, nextMemberId, nextOrderId);
+	}
+
+	/**
+	 * Reads the shards of a snapshot. Each shard is handed to a thread of the
+	 * common pool as soon as its bytes are in, the orders once the catalog they
+	 * refer to is decoded.
+	 *
+	 * @param input        where to read the shards from
+	 * @param epoch        journal epoch of the snapshot
+	 * @param historyEnd   end of the transaction history
+	 * @param nextMemberId next member id to give out
+	 * @param nextOrderId  next order id to give out
+	 * @return the snapshot
+	 * @throws IOException file error or unknown format
+	 */
+	private static Snapshot readShards(DataInputStream input, long epoch, long historyEnd, int nextMemberId,
+			int nextOrderId) throws IOException {
+		int shardCount = readCount(input);
+		byte[] kinds = new byte[shardCount];
+		int[] lengths = new int[shardCount];
+		for (int index = 0; index < shardCount; index++) {
+			kinds[index] = input.readByte();
+			lengths[index] = input.readInt();
+		}
+		CompletableFuture<List<Product>> products = null;
+		CompletableFuture<List<Order>> orders = null;
+		CompletableFuture<SalesTotals> sales = null;
+		List<CompletableFuture<List<Member>>> memberRanges = new ArrayList<CompletableFuture<List<Member>>>();
+		for (int index = 0; index < shardCount; index++) {
+			byte[] bytes = new byte[lengths[index]];
+			input.readFully(bytes);
+			switch (kinds[index]) {
+			case CATALOG:
+				products = CompletableFuture.supplyAsync(() -> decode(bytes,
+						shard -> readProducts(shard, StringTable.read(shard))));
+				break;
+			case MEMBERS:
+				memberRanges.add(CompletableFuture.supplyAsync(() -> decode(bytes, Snapshot::readMembers)));
+				break;
+			case ORDERS:
+				if (products == null) {
+					throw new IOException("Malformed store snapshot");
+				}
+				orders = products.thenApplyAsync(catalog -> decode(bytes,
+						shard -> readOrders(shard, StringTable.read(shard), catalog)));
+				break;
+			case SALES:
+				sales = CompletableFuture.supplyAsync(() -> decode(bytes, SalesTotals::read));
+				break;
+			default:
+				throw new IOException("Unknown store snapshot shard " + kinds[index]);
+			}
+		}
+		if (orders == null || sales == null) {
+			throw new IOException("Malformed store snapshot");
+		}
+		try {
+			List<Member> members = new ArrayList<Member>();
+			for (CompletableFuture<List<Member>> range : memberRanges) {
+				members.addAll(range.join());
+			}
+			return new Snapshot(epoch, historyEnd, nextMemberId, nextOrderId, products.join(), members,
+					orders.join(), sales.join());
+		} catch (CompletionException ce) {
+			if (ce.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) ce.getCause()).getCause();
+			}
+			throw ce;
+		}
+	}
+
+	private void writeCatalog(DataOutputStream output) throws IOException {
+		StringTable strings = new StringTable();
+		for (Product product : products) {
+			strings.add(product);
+		}
+		strings.write(output);
+		writeCount(output, products.size());
+		for (Product product : products) {
+			writeProduct(output, strings, product);
+		}
+	}
+
+	private static List<Product> readProducts(DataInputStream input, String[] strings) throws IOException {
+		int productCount = readCount(input);
+		List<Product> products = new ArrayList<Product>(productCount);
+		for (int index = 0; index < productCount; index++) {
+			products.add(readProduct(input, strings));
+		}
+		return products;
+	}
+
+	private static void writeMembers(DataOutputStream output, List<Member> members) throws IOException {
+		writeCount(output, members.size());
+		for (Member member : members) {
+			output.writeInt(member.getId());
+			writeString(output, member.getName());
+			writeString(output, member.getAddress());
+			writeString(output, member.getPhoneNumber());
+			writeDate(output, member.getJoinDate());
+			output.writeLong(member.getFees());
+			output.writeLong(member.getLastTransaction());
+		}
+	}
+
+	private static List<Member> readMembers(DataInputStream input) throws IOException {
+		int memberCount = readCount(input);
+		List<Member> members = new ArrayList<Member>(memberCount);
+		for (int index = 0; index < memberCount; index++) {
+			Member member = new Member(input.readInt(), readString(input), readString(input), readString(input),
+					readDate(input), input.readLong());
+			member.setLastTransaction(input.readLong());
+			members.add(member);
+		}
+		return members;
+	}
+
+	private void writeOrders(DataOutputStream output, Map<Product, Integer> catalogPositions) throws IOException {
+		StringTable strings = new StringTable();
+		for (Order order : orders) {
+			if (!catalogPositions.containsKey(order.getOrderItem())) {
+				strings.add(order.getOrderItem());
+			}
+		}
+		strings.write(output);
+		writeCount(output, orders.size());
+		for (Order order : orders) {
+			output.writeInt(order.getOrderId());
+			Integer position = catalogPositions.get(order.getOrderItem());
+			if (position != null) {
+				writeCount(output, position + 1);
+			} else {
+				writeCount(output, 0);
+				writeProduct(output, strings, order.getOrderItem());
+			}
+			output.writeInt(order.getQuantity());
+			writeDate(output, order.getCreatedDate());
+		}
+	}
+
+	private static List<Order> readOrders(DataInputStream input, String[] strings, List<Product> products)
+			throws IOException {
+		int orderCount = readCount(input);
+		List<Order> orders = new ArrayList<Order>(orderCount);
+		for (int index = 0; index < orderCount; index++) {
+			int orderId = input.readInt();
+			int position = readCount(input);
+			Product item = position == 0 ? readProduct(input, strings) : products.get(position - 1);
+			int quantity = input.readInt();
+			orders.add(new Order(orderId, item, quantity, readDate(input)));
+		}
+		return orders;
+	}
+
+	/**
+	 * Decodes the bytes of a shard
+	 *
+	 * @param bytes  the shard
+	 * @param reader reads the contents of the shard
+	 * @return the contents
+	 */
+	private static <T> T decode(byte[] bytes, ShardReader<T> reader) {
+		try {
+			return reader.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	private static Product copy(Product product) {
+		return new Product(product.getName(), product.getId(), product.getStock(), product.getPrice(),
+				product.getReOrderLevel());
+	}
+
+	private static void writeProduct(DataOutputStream output, StringTable strings, Product product)
+			throws IOException {
+		writeCount(output, strings.indexOf(product.getName()));
+		writeCount(output, strings.indexOf(product.getId()));
+		output.writeInt(product.getStock());
+		output.writeLong(product.getPrice());
+		output.writeInt(product.getReOrderLevel());
+	}
+
+	private static Product readProduct(DataInputStream input, String[] strings) throws IOException {
+		String name = strings[readCount(input)];
+		String id = strings[readCount(input)];
+		return new Product(name, id, input.readInt(), input.readLong(), input.readInt());
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null) {
+			output.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		if (input.readBoolean()) {
+			return input.readUTF();
+		}
+		return null;
+	}
+
+	private static void writeDate(DataOutputStream output, Date date) throws IOException {
+		output.writeLong(date == null ? NO_DATE : date.getTime());
+	}
+
+	private static Date readDate(DataInputStream input) throws IOException {
+		long time = input.readLong();
+		return time == NO_DATE ? null : new Date(time);
+	}
+
+	/**
+	 * Writes a non negative int in 7 bit groups, small values take one byte
+	 *
+	 * @param output where to write
+	 * @param value  the value
+	 * @throws IOException file error
+	 */
+	private static void writeCount(DataOutputStream output, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte(value);
+	}
+
+	private static int readCount(DataInputStream input) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+			int next = input.readUnsignedByte();
+			value |= (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed store snapshot");
+	}
+
+	/**
+	 * Reads the contents of a shard
+	 *
+	 * @param <T> what the shard holds
+	 */
+	private interface ShardReader<T> {
+		T read(DataInputStream input) throws IOException;
+	}
+
+	/**
+	 * Writes the contents of a shard
+	 *
+	 */
+	private interface ShardWriter {
+		void write(DataOutputStream output) throws IOException;
+	}
+
+	/**
+	 * A shard to be written: its kind and, once encoded, its bytes
+	 *
+	 */
+	private static class Shard {
+		private byte kind;
+		private ShardWriter writer;
+		private byte[] bytes;
+
+		Shard(byte kind, ShardWriter writer) {
+			this.kind = kind;
+			this.writer = writer;
+		}
+
+		void encode() {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (DataOutputStream output = new DataOutputStream(buffer)) {
+				writer.write(output);
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			bytes = buffer.toByteArray();
+		}
+	}
+
+	/**
+	 * Product names and ids written once and referred to by position. Position 0
+	 * stands for null.
+	 *
+	 */
+	private static class StringTable {
+		private Map<String, Integer> positions = new HashMap<String, Integer>();
+		private List<String> strings = new ArrayList<String>();
+
+		void add(Product product) {
+			add(product.getName());
+			add(product.getId());
+		}
+
+		void add(String value) {
+			if (value != null && !positions.containsKey(value)) {
+				strings.add(value);
+				positions.put(value, strings.size());
+			}
+		}
+
+		int indexOf(String value) {
+			return value == null ? 0 : positions.get(value);
+		}
+
+		void write(DataOutputStream output) throws IOException {
+			writeCount(output, strings.size());
+			for (String value : strings) {
+				output.writeUTF(value);
+			}
+		}
+
+		static String[] read(DataInputStream input) throws IOException {
+			String[] strings = new String[readCount(input) + 1];
+			for (int index = 1; index < strings.length; index++) {
+				strings[index] = input.readUTF();
+			}
+			return strings;
+		}
+	}
+}
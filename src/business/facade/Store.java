@@ -1,22 +1,72 @@
 package business.facade;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import business.entities.Member;
 import business.entities.Order;
 import business.entities.Product;
+import business.entities.ProductTable;
 import business.entities.Transaction;
 import business.entities.iterators.SafeMemberIterator;
 import business.entities.iterators.SafeOrderIterator;
 import business.entities.iterators.SafeProductIterator;
+import business.entities.views.MemberView;
+import business.entities.views.OrderView;
+import business.entities.views.ProductView;
+import business.entities.views.ViewIterator;
 
 /**
  * The facade representing the store and all its inventories. It is a singleton
@@ -29,30 +79,96 @@ import business.entities.iterators.SafeProductIterator;
 public class Store implements Serializable {
 
 	private static final long serialVersionUID = 1L;
-	private static Store store;
+	private static final String DATA_FILE = "StoreData";
+	private static final String JOURNAL_FILE = "StoreJournal";
+	private static final String HISTORY_FILE = "StoreHistory";
+	private static final int COMPACTION_THRESHOLD = 10000;
+	private static final int PRODUCT_LOCKS = 1024;
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final char PRODUCT_PAGE = 'p';
+	private static final char MEMBER_PAGE = 'm';
+	private static final char ORDER_PAGE = 'o';
+	private static final String TEMPORARY_DATA_FILE = "StoreData.tmp";
+	private static final Map<String, Object> PERSISTENCE = new ConcurrentHashMap<String, Object>();
+	private static final ScheduledExecutorService SAVER = Executors
+			.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+				Thread saver = new Thread(task, "Store saver");
+				saver.setDaemon(true);
+				return saver;
+			});
+	private static final StoreMetrics METRICS = new StoreMetrics();
+	private static ScheduledFuture<?> autoSave;
+	private static volatile Store store;
 	private MemberList memberList = new MemberList();
 	private Catalog catalog = new Catalog();
 	private PendingOrders orders = new PendingOrders();
+	private long journalEpoch;
+	private transient IdAllocator memberIds = new IdAllocator(1);
+	private transient IdAllocator orderIds = new IdAllocator(1);
+	private transient ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+	private transient Lock[] productLocks = productLocks();
+	private transient volatile Journal journal;
+	private transient volatile TransactionHistory history;
+	private transient Journal.Entry replaying;
+	private transient SalesTotals sales = new SalesTotals();
+	private transient AtomicBoolean compacting = new AtomicBoolean();
+	private transient File directory;
+	private transient volatile boolean closed;
 
 	/**
-	 * Collection class to hold products of the store
+	 * Collection class to hold products of the store. The products are the rows
+	 * of a ProductTable, which lists them in insertion order by ordinal so a
+	 * listing can be resumed after any product, and are indexed by lower cased
+	 * id and name so searches do not need to walk the table. Adding and renaming
+	 * products lock the catalog, everything else can be used by several threads
+	 * at once.
 	 *
 	 */
-	private class Catalog implements Serializable, Iterable<Product> {
+	private static class Catalog implements Serializable, Iterable<Product> {
 		private static final long serialVersionUID = 1L;
-		private List<Product> products = new LinkedList<Product>();
+		private static final ObjectStreamField[] serialPersistentFields = {
+				new ObjectStreamField("products", List.class) };
+		private transient Map<String, Product> idIndex = new ConcurrentHashMap<String, Product>();
+		private transient Map<String, Product> nameIndex = new ConcurrentHashMap<String, Product>();
+		private transient ProductTable table = new ProductTable();
 
 		/**
-		 * Adds product to the collection class Catalog
+		 * Adds product to the collection class Catalog. The caller holds the lock
+		 * of the product, or the store is not shared yet.
 		 * 
 		 * @param product product to add
 		 * @return success of operation
 		 */
-		public boolean addProduct(Product product) {
-			if (searchName(product.getName()) == null) {
-				return products.add(product);
+		public synchronized boolean addProduct(Product product) {
+			// a product with a taken name must not get a row, so the name is
+			// checked and the row added under the lock of the catalog
+			if (nameIndex.containsKey(key(product.getName()))) {
+				return false;
 			}
-			return false;
+			product.attach(table);
+			nameIndex.put(key(product.getName()), product);
+			idIndex.putIfAbsent(key(product.getId()), product);
+			return true;
+		}
+
+		/**
+		 * Changes the name of a product and keeps the name index in step. The
+		 * caller holds the lock of the product.
+		 * 
+		 * @param product product to rename
+		 * @param newName the new name
+		 * @return false if another product already has the name
+		 */
+		public synchronized boolean renameProduct(Product product, String newName) {
+			Product existing = nameIndex.putIfAbsent(key(newName), product);
+			if (existing != null && existing != product) {
+				return false;
+			}
+			if (!key(newName).equals(key(product.getName()))) {
+				nameIndex.remove(key(product.getName()), product);
+			}
+			product.setName(newName);
+			return true;
 		}
 
 		/**
@@ -62,14 +178,7 @@ public class Store implements Serializable {
 		 * @return product if found, null if not
 		 */
 		public Product searchName(String productName) {
-			Iterator<Product> productIterator = products.iterator();
-			while (productIterator.hasNext()) {
-				Product curProduct = productIterator.next();
-				if (curProduct.matchesName(productName)) {
-					return curProduct;
-				}
-			}
-			return null;
+			return nameIndex.get(key(productName));
 		}
 
 		/**
@@ -79,14 +188,88 @@ public class Store implements Serializable {
 		 * @return product if found, null if not
 		 */
 		public Product searchID(String productId) {
-			Iterator<Product> productIterator = products.iterator();
-			while (productIterator.hasNext()) {
-				Product curProduct = productIterator.next();
-				if (curProduct.matchesID(productId)) {
-					return curProduct;
+			return idIndex.get(key(productId));
+		}
+
+		/**
+		 * number of products in the catalog, products sharing an id included.
+		 * Products are never removed, so every row of the table is a product.
+		 *
+		 * @return the number of products
+		 */
+		public int size() {
+			return table.size();
+		}
+
+		/**
+		 * read only view of the products in catalog order
+		 * 
+		 * @return the products
+		 */
+		public Collection<Product> values() {
+			return new AbstractCollection<Product>() {
+				@Override
+				public Iterator<Product> iterator() {
+					return table.iterator(0);
+				}
+
+				@Override
+				public int size() {
+					return table.size();
+				}
+			};
+		}
+
+		/**
+		 * the products added after a position. The position of a product is one
+		 * more than its ordinal.
+		 * 
+		 * @param position position of the last product already listed, 0 to start
+		 *                 at the first product
+		 * @return the products
+		 */
+		public Iterator<Product> after(long position) {
+			return table.iterator((int) position);
+		}
+
+		/**
+		 * Freezes the table of the catalog for a save
+		 * 
+		 * @return the frozen table
+		 */
+		public ProductTable freeze() {
+			return table.freeze();
+		}
+
+		/**
+		 * the products whose stock is at or below their reorder level
+		 * 
+		 * @return the products in catalog order
+		 */
+		public List<Product> lowStock() {
+			return table.lowStock();
+		}
+
+		/**
+		 * Reads the product list of a store file saved with Java serialization and
+		 * rebuilds the indexes
+		 * 
+		 * @param input stream to read from
+		 * @throws IOException            file error
+		 * @throws ClassNotFoundException class error
+		 */
+		@SuppressWarnings("unchecked")
+		private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+			ObjectInputStream.GetField fields = input.readFields();
+			List<Product> list = (List<Product>) fields.get("products", null);
+			idIndex = new ConcurrentHashMap<String, Product>();
+			nameIndex = new ConcurrentHashMap<String, Product>();
+			table = new ProductTable();
+			if (list != null) {
+				for (Product product : list) {
+					addProduct(product);
 				}
 			}
-			return null;
 		}
 
 		/**
@@ -94,17 +277,29 @@ public class Store implements Serializable {
 		 */
 		@Override
 		public Iterator<Product> iterator() {
-			return products.iterator();
+			return table.iterator(0);
 		}
 	}
 
 	/**
-	 * Collection class to hold members of the store
+	 * Collection class to hold members of the store. Member ids are handed out
+	 * sequentially, so members are stored in fixed size chunks of an array indexed
+	 * by id which gives constant time search and removal. Chunks never move once
+	 * created, so adding, removing and searching do not lock; only creating a new
+	 * chunk does. While a save copies the list, changes record what they replace.
 	 *
 	 */
-	private class MemberList implements Serializable, Iterable<Member> {
+	private static class MemberList implements Serializable, Iterable<Member> {
 		private static final long serialVersionUID = 1L;
-		private List<Member> members = new LinkedList<Member>();
+		private static final ObjectStreamField[] serialPersistentFields = {
+				new ObjectStreamField("members", List.class) };
+		private static final int CHUNK_BITS = 12;
+		private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+		private transient volatile AtomicReferenceArray<AtomicReferenceArray<Member>> chunks = new AtomicReferenceArray<AtomicReferenceArray<Member>>(
+				16);
+		private transient AtomicInteger size = new AtomicInteger();
+		private transient volatile PreImages<Member> preImages;
+		private transient volatile PreImages<Long> lastTransactions;
 
 		/**
 		 * adds a member to the collection
@@ -113,7 +308,20 @@ public class Store implements Serializable {
 		 * @return success of the operation
 		 */
 		public boolean addMember(Member member) {
-			return members.add(member);
+			int memberID = member.getId();
+			if (memberID < 0) {
+				return false;
+			}
+			AtomicReferenceArray<Member> chunk = chunk(memberID, true);
+			PreImages<Member> frozen = preImages;
+			if (frozen != null) {
+				frozen.record(memberID, chunk.get(memberID & (CHUNK_SIZE - 1)));
+			}
+			if (chunk.compareAndSet(memberID & (CHUNK_SIZE - 1), null, member)) {
+				size.incrementAndGet();
+				return true;
+			}
+			return false;
 		}
 
 		/**
@@ -123,14 +331,74 @@ public class Store implements Serializable {
 		 * @return operation success
 		 */
 		public boolean removeMember(int memberID) {
-			Member member = search(memberID);
-			if (member != null) {
-				members.remove(member);
+			AtomicReferenceArray<Member> chunk = chunk(memberID, false);
+			if (chunk == null) {
+				return false;
+			}
+			PreImages<Member> frozen = preImages;
+			if (frozen != null) {
+				frozen.record(memberID, chunk.get(memberID & (CHUNK_SIZE - 1)));
+			}
+			if (chunk.getAndSet(memberID & (CHUNK_SIZE - 1), null) != null) {
+				size.decrementAndGet();
 				return true;
 			}
 			return false;
 		}
 
+		/**
+		 * Sets where the newest transaction of a member is in the transaction
+		 * history. The caller holds the lock of the member.
+		 * 
+		 * @param member   the member
+		 * @param position position of the newest transaction
+		 */
+		public void setLastTransaction(Member member, long position) {
+			PreImages<Long> frozen = lastTransactions;
+			if (frozen != null) {
+				frozen.record(member.getId(), member.getLastTransaction());
+			}
+			member.setLastTransaction(position);
+		}
+
+		/**
+		 * Starts recording what changes replace, so frozen can copy the members
+		 * as they are now. The caller makes sure nothing changes at the same time.
+		 */
+		public void freeze() {
+			preImages = new PreImages<Member>();
+			lastTransactions = new PreImages<Long>();
+		}
+
+		/**
+		 * Copies the members as they were when the list was frozen, while the
+		 * list goes on changing
+		 * 
+		 * @return copies of the members
+		 */
+		public List<Member> frozen() {
+			List<Member> copies = new ArrayList<Member>();
+			for (Member member : preImages.merge(this, Member::getId)) {
+				long lastTransaction = member.getLastTransaction();
+				Long before = lastTransactions.get(member.getId());
+				Date joinDate = member.getJoinDate();
+				Member copy = new Member(member.getId(), member.getName(), member.getAddress(),
+						member.getPhoneNumber(), joinDate == null ? null : new Date(joinDate.getTime()),
+						member.getFees());
+				copy.setLastTransaction(before == null ? lastTransaction : before);
+				copies.add(copy);
+			}
+			return copies;
+		}
+
+		/**
+		 * Stops recording what changes replace
+		 */
+		public void thaw() {
+			preImages = null;
+			lastTransactions = null;
+		}
+
 		/**
 		 * searches for a member by id
 		 * 
@@ -138,33 +406,238 @@ public class Store implements Serializable {
 		 * @return member if successful, null if not
 		 */
 		public Member search(int memberID) {
-			Iterator<Member> memberIterator = members.iterator();
-			while (memberIterator.hasNext()) {
-				Member curMember = memberIterator.next();
-				if (curMember.matchesID(memberID)) {
-					return curMember;
+			AtomicReferenceArray<Member> chunk = chunk(memberID, false);
+			if (chunk == null) {
+				return null;
+			}
+			return chunk.get(memberID & (CHUNK_SIZE - 1));
+		}
+
+		/**
+		 * number of members in the collection
+		 * 
+		 * @return member count
+		 */
+		public int size() {
+			return size.get();
+		}
+
+		/**
+		 * Finds the chunk holding a member id
+		 * 
+		 * @param memberID the member id
+		 * @param create   true to create the chunk if it does not exist
+		 * @return the chunk or null if it does not exist and create is false
+		 */
+		private AtomicReferenceArray<Member> chunk(int memberID, boolean create) {
+			if (memberID < 0) {
+				return null;
+			}
+			int index = memberID >>> CHUNK_BITS;
+			AtomicReferenceArray<AtomicReferenceArray<Member>> current = chunks;
+			if (index < current.length() && current.get(index) != null) {
+				return current.get(index);
+			}
+			if (!create) {
+				return null;
+			}
+			synchronized (this) {
+				current = chunks;
+				if (index >= current.length()) {
+					AtomicReferenceArray<AtomicReferenceArray<Member>> grown = new AtomicReferenceArray<AtomicReferenceArray<Member>>(
+							Math.max(index + 1, current.length() * 2));
+					for (int position = 0; position < current.length(); position++) {
+						grown.set(position, current.get(position));
+					}
+					chunks = current = grown;
+				}
+				if (current.get(index) == null) {
+					current.set(index, new AtomicReferenceArray<Member>(CHUNK_SIZE));
+				}
+				return current.get(index);
+			}
+		}
+
+		/**
+		 * read only view of the members in id order
+		 * 
+		 * @return the members
+		 */
+		public Collection<Member> values() {
+			return new AbstractCollection<Member>() {
+				@Override
+				public Iterator<Member> iterator() {
+					return MemberList.this.iterator();
+				}
+
+				@Override
+				public int size() {
+					return size.get();
+				}
+
+				@Override
+				public Spliterator<Member> spliterator() {
+					AtomicReferenceArray<AtomicReferenceArray<Member>> directory = chunks;
+					return new MemberSpliterator(directory, 0, directory.length() << CHUNK_BITS);
+				}
+			};
+		}
+
+		/**
+		 * Spliterator over the members with an id in a range of the chunks, in id
+		 * order. It splits the range in halves at chunk boundaries, so a parallel
+		 * stream gives each thread an even share of the chunks. Members added or
+		 * removed while it runs may or may not be seen.
+		 *
+		 */
+		private static class MemberSpliterator implements Spliterator<Member> {
+			private final AtomicReferenceArray<AtomicReferenceArray<Member>> directory;
+			private int cursor;
+			private final int fence;
+
+			/**
+			 * @param directory the chunks
+			 * @param origin    the lowest id to return
+			 * @param fence     one more than the highest id to return
+			 */
+			private MemberSpliterator(AtomicReferenceArray<AtomicReferenceArray<Member>> directory, int origin,
+					int fence) {
+				this.directory = directory;
+				this.cursor = origin;
+				this.fence = fence;
+			}
+
+			@Override
+			public boolean tryAdvance(Consumer<? super Member> action) {
+				while (cursor < fence) {
+					AtomicReferenceArray<Member> chunk = directory.get(cursor >>> CHUNK_BITS);
+					if (chunk == null) {
+						cursor = (cursor | (CHUNK_SIZE - 1)) + 1;
+					} else {
+						Member member = chunk.get(cursor++ & (CHUNK_SIZE - 1));
+						if (member != null) {
+							action.accept(member);
+							return true;
+						}
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public Spliterator<Member> trySplit() {
+				int middle = ((cursor + fence) >>> 1) & -CHUNK_SIZE;
+				if (middle <= cursor) {
+					return null;
+				}
+				Spliterator<Member> prefix = new MemberSpliterator(directory, cursor, middle);
+				cursor = middle;
+				return prefix;
+			}
+
+			@Override
+			public long estimateSize() {
+				return fence - cursor;
+			}
+
+			@Override
+			public int characteristics() {
+				return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.CONCURRENT;
+			}
+		}
+
+		/**
+		 * Reads the member list of a store file saved with Java serialization and
+		 * rebuilds the chunks
+		 * 
+		 * @param input stream to read from
+		 * @throws IOException            file error
+		 * @throws ClassNotFoundException class error
+		 */
+		@SuppressWarnings("unchecked")
+		private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+			ObjectInputStream.GetField fields = input.readFields();
+			List<Member> list = (List<Member>) fields.get("members", null);
+			chunks = new AtomicReferenceArray<AtomicReferenceArray<Member>>(16);
+			size = new AtomicInteger();
+			if (list != null) {
+				for (Member member : list) {
+					addMember(member);
 				}
 			}
-			return null;
 		}
 
 		/**
-		 * iterator for the MemberList
+		 * iterator for the MemberList, members are returned in id order. Members
+		 * added or removed while iterating may or may not be seen.
 		 */
 		@Override
 		public Iterator<Member> iterator() {
-			return members.iterator();
+			return iterator(0);
+		}
+
+		/**
+		 * iterator over the members with an id of at least first, in id order
+		 * 
+		 * @param first the lowest id to return
+		 * @return the iterator
+		 */
+		public Iterator<Member> iterator(int first) {
+			return new Iterator<Member>() {
+				private AtomicReferenceArray<AtomicReferenceArray<Member>> directory = chunks;
+				private int cursor = first - 1;
+				private Member next = advance();
+
+				private Member advance() {
+					int limit = directory.length() << CHUNK_BITS;
+					while (++cursor < limit) {
+						AtomicReferenceArray<Member> chunk = directory.get(cursor >>> CHUNK_BITS);
+						if (chunk == null) {
+							cursor |= CHUNK_SIZE - 1;
+						} else {
+							Member member = chunk.get(cursor & (CHUNK_SIZE - 1));
+							if (member != null) {
+								return member;
+							}
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public Member next() {
+					if (next == null) {
+						throw new NoSuchElementException("No such element");
+					}
+					Member member = next;
+					next = advance();
+					return member;
+				}
+			};
 		}
 	}
 
 	/**
-	 * Collection class to hold orders of the store
+	 * Collection class to hold orders of the store. Orders are kept in the order
+	 * they were placed, keyed by order id, with a secondary index from product id
+	 * to the orders still open for that product. All of it can be used by several
+	 * threads at once. While a save copies the orders, changes record what they
+	 * replace.
 	 *
 	 */
-	private class PendingOrders implements Serializable, Iterable<Order> {
+	private static class PendingOrders implements Serializable, Iterable<Order> {
 
 		private static final long serialVersionUID = 1L;
-		private List<Order> orderItems = new LinkedList<Order>();
+		private static final ObjectStreamField[] serialPersistentFields = {
+				new ObjectStreamField("orderItems", List.class) };
+		private transient ConcurrentNavigableMap<Integer, Order> orderItems = new ConcurrentSkipListMap<Integer, Order>();
+		private transient ConcurrentMap<String, Queue<Order>> productIndex = new ConcurrentHashMap<String, Queue<Order>>();
+		private transient volatile PreImages<Order> preImages;
 
 		/**
 		 * adds an order to the collection
@@ -172,7 +645,18 @@ public class Store implements Serializable {
 		 * @param order to add
 		 */
 		public void addOrderItem(Order order) {
-			orderItems.add(order);
+			PreImages<Order> frozen = preImages;
+			if (frozen != null) {
+				frozen.record(order.getOrderId(), orderItems.get(order.getOrderId()));
+			}
+			orderItems.put(order.getOrderId(), order);
+			productIndex.compute(order.getOrderItem().getId(), (id, productOrders) -> {
+				if (productOrders == null) {
+					productOrders = new ConcurrentLinkedQueue<Order>();
+				}
+				productOrders.add(order);
+				return productOrders;
+			});
 		}
 
 		/**
@@ -182,14 +666,7 @@ public class Store implements Serializable {
 		 * @return order if successful, null if not
 		 */
 		public Order searchOrderId(int orderId) {
-			Iterator<Order> orderIterator = orderItems.iterator();
-			while (orderIterator.hasNext()) {
-				Order cursor = orderIterator.next();
-				if (cursor.matchesId(orderId)) {
-					return cursor;
-				}
-			}
-			return null;
+			return orderItems.get(orderId);
 		}
 
 		/**
@@ -199,11 +676,18 @@ public class Store implements Serializable {
 		 * @return the order that was deleted or null if it was not found
 		 */
 		public Order deleteOrderItem(int orderId) {
-			Order item = this.searchOrderId(orderId);
+			PreImages<Order> frozen = preImages;
+			if (frozen != null) {
+				frozen.record(orderId, orderItems.get(orderId));
+			}
+			Order item = orderItems.remove(orderId);
 			if (item == null) {
 				return null;
 			}
-			orderItems.remove(item);
+			productIndex.computeIfPresent(item.getOrderItem().getId(), (id, productOrders) -> {
+				productOrders.remove(item);
+				return productOrders.isEmpty() ? null : productOrders;
+			});
 			return item;
 		}
 
@@ -215,14 +699,96 @@ public class Store implements Serializable {
 		 * @return true if the product is in the list of orders, false if it is not.
 		 */
 		public boolean contains(Product product) {
-			Iterator<Order> orderIterator = orderItems.iterator();
-			while (orderIterator.hasNext()) {
-				Order cursor = orderIterator.next();
-				if (cursor.getOrderItem().getId().equals(product.getId())) {
-					return true;
+			return productIndex.containsKey(product.getId());
+		}
+
+		/**
+		 * Gets the orders that are open for a product
+		 * 
+		 * @param product - the product to look for
+		 * @return the open orders, empty if there are none
+		 */
+		public List<Order> getOrders(Product product) {
+			Queue<Order> productOrders = productIndex.get(product.getId());
+			if (productOrders == null) {
+				return Collections.emptyList();
+			}
+			return new ArrayList<Order>(productOrders);
+		}
+
+		/**
+		 * number of orders waiting for a shipment
+		 * 
+		 * @return the number of orders
+		 */
+		public int size() {
+			return orderItems.size();
+		}
+
+		/**
+		 * read only view of the orders in the order they were placed
+		 * 
+		 * @return the orders
+		 */
+		public Collection<Order> values() {
+			return Collections.unmodifiableCollection(orderItems.values());
+		}
+
+		/**
+		 * Starts recording what changes replace, so frozen can list the orders as
+		 * they are now. The caller makes sure nothing changes at the same time.
+		 */
+		public void freeze() {
+			preImages = new PreImages<Order>();
+		}
+
+		/**
+		 * Lists the orders as they were when frozen, while the orders go on
+		 * changing. Orders do not change, they are not copied.
+		 * 
+		 * @return the orders
+		 */
+		public List<Order> frozen() {
+			return preImages.merge(orderItems.values(), Order::getOrderId);
+		}
+
+		/**
+		 * Stops recording what changes replace
+		 */
+		public void thaw() {
+			preImages = null;
+		}
+
+		/**
+		 * read only view of the orders placed after an order
+		 * 
+		 * @param orderId id of the last order already listed, 0 to start at the
+		 *                first order
+		 * @return the orders
+		 */
+		public Collection<Order> after(int orderId) {
+			return Collections.unmodifiableCollection(orderItems.tailMap(orderId, false).values());
+		}
+
+		/**
+		 * Reads the order list of a store file saved with Java serialization and
+		 * rebuilds the indexes
+		 * 
+		 * @param input stream to read from
+		 * @throws IOException            file error
+		 * @throws ClassNotFoundException class error
+		 */
+		@SuppressWarnings("unchecked")
+		private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+			ObjectInputStream.GetField fields = input.readFields();
+			List<Order> list = (List<Order>) fields.get("orderItems", null);
+			orderItems = new ConcurrentSkipListMap<Integer, Order>();
+			productIndex = new ConcurrentHashMap<String, Queue<Order>>();
+			if (list != null) {
+				for (Order order : list) {
+					addOrderItem(order);
 				}
 			}
-			return false;
 		}
 
 		/**
@@ -230,11 +796,11 @@ public class Store implements Serializable {
 		 */
 		@Override
 		public Iterator<Order> iterator() {
-			return orderItems.iterator();
+			return values().iterator();
 		}
 
 		public String toString() {
-			return orderItems.toString();
+			return orderItems.values().toString();
 		}
 	}
 
@@ -244,12 +810,33 @@ public class Store implements Serializable {
 	private Store() {
 	}
 
+	/**
+	 * Rebuilds a store from a binary snapshot
+	 * 
+	 * @param snapshot the snapshot read from disk
+	 */
+	private Store(Snapshot snapshot) {
+		journalEpoch = snapshot.getEpoch();
+		memberIds = new IdAllocator(snapshot.getNextMemberId());
+		orderIds = new IdAllocator(snapshot.getNextOrderId());
+		for (Product product : snapshot.getProducts()) {
+			catalog.addProduct(product);
+		}
+		// the member list is indexed by id, so members can be added on all cores
+		snapshot.getMembers().parallelStream().forEach(memberList::addMember);
+		for (Order order : snapshot.getOrders()) {
+			orders.addOrderItem(order);
+		}
+		sales = snapshot.getSales();
+	}
+
 	/**
 	 * To get an instance of the singleton
 	 * 
 	 * @return singleton instance
 	 */
-	public static Store instance() {
+	public static synchronized Store instance() {
+		METRICS.register();
 		if (store == null) {
 			return store = new Store();
 		} else {
@@ -265,19 +852,29 @@ public class Store implements Serializable {
 	 *         Result.OPERATION_FAILURE if there was an error
 	 */
 	public Result enrollMember(Request request) {
-		Result newResult = new Result();
-		Member newMember = new Member(request.getMemberName(), request.getMemberAddress(),
-				request.getMemberPhoneNumber(), request.getMemberJoinDate(), request.getMemberFees());
-
-		if (memberList.addMember(newMember)) {
-			newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
-			newResult.setStatus(Result.MEMBER_ADDED);
-			newResult.setMember(newMember);
-		} else {
-			newResult.setSuccess(Result.OPERATION_FAILURE);
-			newResult.setStatus(Result.MEMBER_FOUND);
+		long started = METRICS.enrollMember.start();
+		boolean succeeded = false;
+		beginOperation();
+		try {
+			Result newResult = new Result();
+			Member newMember = createMember(request);
+			synchronized (newMember) {
+				if (memberList.addMember(newMember)) {
+					succeeded = true;
+					newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
+					newResult.setStatus(Result.MEMBER_ADDED);
+					newResult.setMember(newMember);
+					log(Journal.ENROLL_MEMBER, now(), request, newMember.getId());
+				} else {
+					newResult.setSuccess(Result.OPERATION_FAILURE);
+					newResult.setStatus(Result.MEMBER_FOUND);
+				}
+			}
+			return newResult;
+		} finally {
+			endOperation();
+			METRICS.enrollMember.record(started, succeeded);
 		}
-		return newResult;
 	}
 
 	/**
@@ -288,18 +885,31 @@ public class Store implements Serializable {
 	 *         Result.OPERATION_FAILURE if there was an error
 	 */
 	public Result removeMember(Request request) {
-		Result newResult = new Result();
-		Member member = memberList.search(request.getMemberId());
-		if (member != null) {
-			newResult.setMember(member);
-			newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
-			newResult.setStatus(Result.MEMBER_REMOVED);
-			memberList.removeMember(member.getId());
-		} else {
+		beginOperation();
+		try {
+			Result newResult = new Result();
+			Member member = memberList.search(request.getMemberId());
+			if (member != null) {
+				synchronized (member) {
+					if (memberList.removeMember(member.getId())) {
+						TransactionHistory current = history;
+						if (current != null) {
+							current.forget(member.getId());
+						}
+						newResult.setMember(member);
+						newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
+						newResult.setStatus(Result.MEMBER_REMOVED);
+						log(Journal.REMOVE_MEMBER, now(), request, 0);
+						return newResult;
+					}
+				}
+			}
 			newResult.setSuccess(Result.OPERATION_FAILURE);
 			newResult.setStatus(Result.MEMBER_NOT_FOUND);
+			return newResult;
+		} finally {
+			endOperation();
 		}
-		return newResult;
 	}
 
 	/**
@@ -310,106 +920,477 @@ public class Store implements Serializable {
 	 *         Result.OPERATION_FAILURE if there was an error
 	 */
 	public Result addProduct(Request request) {
-		Result newResult = new Result();
-		// String name, String id, int stock, double price, int reOrderLevel
-		Product product = new Product(request.getProductName(), request.getProductId(), request.getProductStock(),
-				request.getProductPrice(), request.getProductReOrderLevel());
-		if (catalog.addProduct(product)) {
-			newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
-			newResult.setStatus(Result.PRODUCT_ADDED);
-			newResult.setProduct(product);
-			orders.addOrderItem(new Order(product, product.getReOrderLevel() * 2));
-		} else {
-			newResult.setSuccess(Result.OPERATION_FAILURE);
-			newResult.setStatus(Result.PRODUCT_FOUND);
+		beginOperation();
+		try {
+			Result newResult = new Result();
+			// String name, String id, int stock, long price, int reOrderLevel
+			Product product = new Product(request.getProductName(), request.getProductId(),
+					request.getProductStock(), request.getProductPrice(), request.getProductReOrderLevel());
+			Lock lock = lockOf(product);
+			lock.lock();
+			try {
+				if (catalog.addProduct(product)) {
+					newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
+					newResult.setStatus(Result.PRODUCT_ADDED);
+					newResult.setProduct(product);
+					Date time = now();
+					Order order = createOrder(product, product.getReOrderLevel() * 2, time);
+					orders.addOrderItem(order);
+					log(Journal.ADD_PRODUCT, time, request, order.getOrderId());
+				} else {
+					newResult.setSuccess(Result.OPERATION_FAILURE);
+					newResult.setStatus(Result.PRODUCT_FOUND);
+				}
+			} finally {
+				lock.unlock();
+			}
+			return newResult;
+		} finally {
+			endOperation();
 		}
-
-		return newResult;
 	}
 
 	/**
-	 * This method takes in a request with the product id, member id, and amount
-	 * purchased then creates a transaction object and adds the transaction to the
-	 * members record.
+	 * Adds every product of a CSV file of name, id, stock, price and reorder
+	 * level. The file is parsed on all cores, then the products are added in
+	 * file order with other operations waiting, skipping products whose name is
+	 * already taken, so a product may share its id like with addProduct. The
+	 * first order of each product is then placed in one batch like addProduct
+	 * does. The import is not written to the journal; a
+	 * store that keeps a journal is saved before other operations go on instead.
 	 * 
-	 * @param request - a request with the product id, member id, and amount
-	 *                purchased
-	 * @return a result with the transaction string and total price.
+	 * @param fileName the CSV file
+	 * @return a result with a message counting the products added and an item
+	 *         for each line skipped, Result.OPERATION_FAILURE if the file could
+	 *         not be read or the store not saved
 	 */
-	public Result checkoutMember(Request request) {
-		Product item = catalog.searchID(request.getProductId());
-		Transaction purchase = new Transaction(item, request.getQuantity());
-		Member customer = memberList.search(request.getMemberId());
-		customer.addTransaction(purchase);
-		item.setStock(item.getStock() - request.getQuantity());
-		Result output = new Result();
-		output.setMessage(purchase.toString());
-		output.setProductPrice(purchase.getTotalPrice());
-		return output;
+	public Result importProducts(String fileName) {
+		List<Product> added = new ArrayList<Product>();
+		return bulkImport(fileName, 5, CsvImport::product, () -> {
+		}, request -> {
+			Product product = new Product(request.getProductName(), request.getProductId(),
+					request.getProductStock(), request.getProductPrice(), request.getProductReOrderLevel());
+			if (!catalog.addProduct(product)) {
+				return false;
+			}
+			added.add(product);
+			return true;
+		}, () -> {
+			Date time = now();
+			for (Product product : added) {
+				orders.addOrderItem(createOrder(product, product.getReOrderLevel() * 2, time));
+			}
+		}, "products", "product already in system");
 	}
 
 	/**
-	 * This method takes in a product id and if the order level is higher than the
-	 * stock level of that object and there is not already an order for that
-	 * product, then creates an order for twice the reorder level.
+	 * Enrolls every member of a CSV file of name, address, phone number and fee
+	 * paid, the same way importProducts adds products. A member whose name and
+	 * phone number are those of a member already enrolled or of an earlier line
+	 * is skipped, so importing a file twice does not enroll its members twice.
 	 * 
-	 * @param request - the request containing the product id
-	 * @return a result object containing null if no order was made else it returns
-	 *         a message that the order was made.
+	 * @param fileName the CSV file
+	 * @return a result with a message counting the members enrolled and an item
+	 *         for each line skipped, Result.OPERATION_FAILURE if the file could
+	 *         not be read or the store not saved
 	 */
-	public Result checkForOrder(Request request) {
-		Result output = new Result();
-		Product item = catalog.searchID(request.getProductId());
-		if (item.getStock() <= item.getReOrderLevel() && !orders.contains(item)) {
-			String message = "";
-			Order order = new Order(item, item.getReOrderLevel() * 2);
-			orders.addOrderItem(order);
-			message += item.getName() + " has been ordered.\n";
-			message += order.toString();
-			output.setMessage(message);
-		} else {
-			output.setMessage(null);
-		}
-		return output;
+	public Result importMembers(String fileName) {
+		Set<String> enrolled = new HashSet<String>();
+		return bulkImport(fileName, 4, CsvImport::member, () -> {
+			for (Member member : memberList) {
+				enrolled.add(memberKey(member.getName(), member.getPhoneNumber()));
+			}
+		}, request -> enrolled.add(memberKey(request.getMemberName(), request.getMemberPhoneNumber()))
+				&& memberList.addMember(createMember(request)), () -> {
+				}, "members", "member already enrolled");
 	}
 
 	/**
-	 * This method takes an Order object and adds the quantity ordered to the
-	 * Product object's stock. Then deletes the order.
+	 * Key of a member for importMembers: the name ignoring case and the phone
+	 * number
 	 * 
-	 * @param request - the request with the orderId
-	 * @return a Result with the product and updated stock.
+	 * @param name        name of the member
+	 * @param phoneNumber phone number of the member
+	 * @return the key
 	 */
-	public Result processShipment(Request request) {
-		Result output = new Result();
-		Order order = orders.deleteOrderItem(request.getOrderId());
-		order.getOrderItem().setStock(order.getOrderItem().getStock() + order.getQuantity());
-		output.setProduct(order.getOrderItem());
-		output.setSuccess(true);
-		return output;
+	private static String memberKey(String name, String phoneNumber) {
+		return key(name) + '\n' + phoneNumber;
 	}
 
 	/**
-	 * Changes the price of a product identified by id
+	 * Reads a CSV file, then adds its rows while holding the write lock and
+	 * saves the store if it keeps a journal. The whole file is parsed before any
+	 * lock is taken, so other operations only wait while the parsed rows are
+	 * added and saved, at the cost of holding a request for every row in memory
+	 * until the import is done. The imported rows are not logged, so the save
+	 * stays under the lock: nothing may be logged until they are in a snapshot.
 	 * 
-	 * @param request
+	 * @param fileName  the CSV file
+	 * @param columns   number of values of every row
+	 * @param parser    turns a row into a request
+	 * @param start     runs under the lock before the first row is added
+	 * @param importer  adds a request to the store, false if it could not
+	 * @param finish    runs once every row is added
+	 * @param kind      what the rows are, for the message
+	 * @param duplicate message for a row that could not be added
+	 * @return the result of the import
+	 */
+	private Result bulkImport(String fileName, int columns, CsvImport.RowParser parser, Runnable start,
+			Predicate<Request> importer, Runnable finish, String kind, String duplicate) {
+		Result result = new Result();
+		List<Integer> lines = new ArrayList<Integer>();
+		List<Request> rows = new ArrayList<Request>();
+		SortedMap<Integer, String> skipped = new TreeMap<Integer, String>();
+		try {
+			CsvImport.read(fileName, columns, parser, new CsvImport.RowHandler() {
+				@Override
+				public void row(int line, Request request) {
+					lines.add(line);
+					rows.add(request);
+				}
+
+				@Override
+				public void error(int line, String message) {
+					skipped.put(line, message);
+				}
+			});
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			result.setSuccess(Result.OPERATION_FAILURE);
+			result.setMessage("Unable to read " + fileName);
+			return result;
+		}
+		int added = 0;
+		boolean saved = true;
+		synchronized (persistence(directory)) {
+			snapshotLock.writeLock().lock();
+			try {
+				start.run();
+				for (int index = 0; index < rows.size(); index++) {
+					if (importer.test(rows.get(index))) {
+						added++;
+					} else {
+						skipped.put(lines.get(index), duplicate);
+					}
+				}
+				finish.run();
+				if (journal != null) {
+					saved = save(this);
+				}
+			} finally {
+				snapshotLock.writeLock().unlock();
+			}
+		}
+		for (Map.Entry<Integer, String> line : skipped.entrySet()) {
+			Result item = new Result();
+			item.setMessage("line " + line.getKey() + ": " + line.getValue());
+			result.addItem(item);
+		}
+		result.setSuccess(saved);
+		result.setMessage(added + " " + kind + " imported, " + skipped.size() + " lines skipped"
+				+ (saved ? "." : ", failure to save data."));
+		return result;
+	}
+
+	/**
+	 * This method takes in a request with the product id, member id, and amount
+	 * purchased then creates a transaction object and adds the transaction to the
+	 * members record. The stock is checked and taken while the product is locked,
+	 * so a product is never sold beyond its stock.
+	 * 
+	 * @param request - a request with the product id, member id, and amount
+	 *                purchased
+	 * @return a result with the transaction string and total price, or
+	 *         Result.OPERATION_FAILURE if the quantity is not positive, the member
+	 *         or product is not found or there is not enough stock.
+	 */
+	public Result checkoutMember(Request request) {
+		long started = METRICS.checkoutMember.start();
+		boolean succeeded = false;
+		beginOperation();
+		try {
+			Result output = new Result();
+			if (request.getQuantity() <= 0) {
+				output.setSuccess(Result.OPERATION_FAILURE);
+				output.setStatus(Result.INVALID_QUANTITY);
+				return output;
+			}
+			Member customer = memberList.search(request.getMemberId());
+			Product item = catalog.searchID(request.getProductId());
+			if (customer == null) {
+				output.setSuccess(Result.OPERATION_FAILURE);
+				output.setStatus(Result.MEMBER_NOT_FOUND);
+				return output;
+			}
+			if (item == null) {
+				output.setSuccess(Result.OPERATION_FAILURE);
+				output.setStatus(Result.PRODUCT_NOT_FOUND);
+				return output;
+			}
+			// members are always locked before products
+			synchronized (customer) {
+				if (memberList.search(customer.getId()) != customer) {
+					output.setSuccess(Result.OPERATION_FAILURE);
+					output.setStatus(Result.MEMBER_NOT_FOUND);
+					return output;
+				}
+				Lock lock = lockOf(item);
+				lock.lock();
+				try {
+					if (request.getQuantity() > item.getStock()) {
+						output.setSuccess(Result.OPERATION_FAILURE);
+						output.setStatus(Result.OUT_OF_STOCK);
+						output.setProduct(item);
+						return output;
+					}
+					Date time = now();
+					Transaction purchase = new Transaction(item, request.getQuantity(), time);
+					addTransaction(customer, purchase);
+					item.setStock(item.getStock() - request.getQuantity());
+					log(Journal.CHECKOUT_MEMBER, time, request, 0);
+					output.setSuccess(Result.OPERATION_SUCCESSFUL);
+					output.setMessage(purchase.toString());
+					output.setProductPrice(purchase.getTotalPrice());
+					succeeded = true;
+					return output;
+				} finally {
+					lock.unlock();
+				}
+			}
+		} finally {
+			endOperation();
+			METRICS.checkoutMember.record(started, succeeded);
+		}
+	}
+
+	/**
+	 * Checks out a whole basket in one call. The member and every product are
+	 * looked up once, then the member and all products of the basket are locked
+	 * and the stock of every line is checked before any of it is taken, so either
+	 * the whole basket is sold or nothing is. Products that drop to their reorder
+	 * level are ordered in the same pass.
+	 * 
+	 * @param request - the member id and the lines added with addItem, which are
+	 *                not changed
+	 * @return a receipt with a result per line holding the transaction string and
+	 *         line total, the basket total as order total price and the reorder
+	 *         messages, or Result.OPERATION_FAILURE with the status and product of
+	 *         the first line that could not be sold.
+	 */
+	public Result checkoutBasket(Request request) {
+		long started = METRICS.checkoutBasket.start();
+		boolean succeeded = false;
+		beginOperation();
+		try {
+			Result receipt = new Result();
+			Member customer = memberList.search(request.getMemberId());
+			if (customer == null) {
+				receipt.setSuccess(Result.OPERATION_FAILURE);
+				receipt.setStatus(Result.MEMBER_NOT_FOUND);
+				return receipt;
+			}
+			List<Request> lines = request.getItems();
+			List<Product> items = new ArrayList<Product>(lines.size());
+			int[] amounts = new int[lines.size()];
+			Map<Product, Long> quantities = new IdentityHashMap<Product, Long>();
+			for (Request line : lines) {
+				int amount = line.getQuantity();
+				Product item = amount > 0 ? catalog.searchID(line.getProductId()) : null;
+				if (item == null) {
+					receipt.setSuccess(Result.OPERATION_FAILURE);
+					receipt.setStatus(amount > 0 ? Result.PRODUCT_NOT_FOUND : Result.INVALID_QUANTITY);
+					receipt.setProductId(line.getProductId());
+					return receipt;
+				}
+				amounts[items.size()] = amount;
+				items.add(item);
+				quantities.merge(item, (long) amount, Long::sum);
+			}
+			Lock[] locks = locksOf(quantities.keySet());
+			synchronized (customer) {
+				if (memberList.search(customer.getId()) != customer) {
+					receipt.setSuccess(Result.OPERATION_FAILURE);
+					receipt.setStatus(Result.MEMBER_NOT_FOUND);
+					return receipt;
+				}
+				int locked = 0;
+				try {
+					for (; locked < locks.length; locked++) {
+						locks[locked].lock();
+					}
+					sellBasket(customer, items, amounts, quantities, receipt);
+				} finally {
+					while (locked > 0) {
+						locks[--locked].unlock();
+					}
+				}
+				succeeded = receipt.getSuccess();
+				return receipt;
+			}
+		} finally {
+			endOperation();
+			METRICS.checkoutBasket.record(started, succeeded);
+		}
+	}
+
+	/**
+	 * This method takes in a product id and if the order level is higher than the
+	 * stock level of that object and there is not already an order for that
+	 * product, then creates an order for twice the reorder level.
+	 * 
+	 * @param request - the request containing the product id
+	 * @return a result object containing null if no order was made else it returns
+	 *         a message that the order was made.
+	 */
+	public Result checkForOrder(Request request) {
+		long started = METRICS.checkForOrder.start();
+		boolean succeeded = false;
+		beginOperation();
+		try {
+			Result output = new Result();
+			output.setMessage(null);
+			Product item = catalog.searchID(request.getProductId());
+			if (item == null) {
+				return output;
+			}
+			Lock lock = lockOf(item);
+			lock.lock();
+			try {
+				if (item.getStock() <= item.getReOrderLevel() && !orders.contains(item)) {
+					String message = "";
+					Date time = now();
+					Order order = createOrder(item, item.getReOrderLevel() * 2, time);
+					orders.addOrderItem(order);
+					log(Journal.CHECK_FOR_ORDER, time, request, order.getOrderId());
+					message += item.getName() + " has been ordered.\n";
+					message += order.toString();
+					output.setMessage(message);
+				}
+			} finally {
+				lock.unlock();
+			}
+			succeeded = true;
+			return output;
+		} finally {
+			endOperation();
+			METRICS.checkForOrder.record(started, succeeded);
+		}
+	}
+
+	/**
+	 * This method takes an Order object and adds the quantity ordered to the
+	 * Product object's stock. Then deletes the order.
+	 * 
+	 * @param request - the request with the orderId
+	 * @return a Result with the product and updated stock, or
+	 *         Result.OPERATION_FAILURE if the order is not found.
+	 */
+	public Result processShipment(Request request) {
+		long started = METRICS.processShipment.start();
+		boolean succeeded = false;
+		beginOperation();
+		try {
+			Result output = new Result();
+			Order order = orders.searchOrderId(request.getOrderId());
+			if (order == null) {
+				output.setSuccess(Result.OPERATION_FAILURE);
+				return output;
+			}
+			Product item = order.getOrderItem();
+			Lock lock = lockOf(item);
+			lock.lock();
+			try {
+				if (orders.deleteOrderItem(request.getOrderId()) == null) {
+					output.setSuccess(Result.OPERATION_FAILURE);
+					return output;
+				}
+				item.setStock(item.getStock() + order.getQuantity());
+				log(Journal.PROCESS_SHIPMENT, now(), request, 0);
+				output.setProduct(item);
+				output.setSuccess(true);
+			} finally {
+				lock.unlock();
+			}
+			succeeded = true;
+			return output;
+		} finally {
+			endOperation();
+			METRICS.processShipment.record(started, succeeded);
+		}
+	}
+
+	/**
+	 * Changes the price of a product identified by id
+	 * 
+	 * @param request
 	 * @return either a Result.OPERATION_SUCCESSFUL with product info or
 	 *         Result.OPERATION_FAILURE if there was an error
 	 */
 	public Result changeProductPrice(Request request) {
-		Result newResult = new Result();
-		Product product = catalog.searchID(request.getProductId());
-		if (product != null) {
-			product.setPrice(request.getNewProductPrice());
-			newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
-			newResult.setStatus(Result.PRODUCT_FOUND);
-			newResult.setProduct(product);
-		} else {
-			newResult.setSuccess(Result.OPERATION_FAILURE);
-			newResult.setStatus(Result.PRODUCT_NOT_FOUND);
+		beginOperation();
+		try {
+			Result newResult = new Result();
+			Product product = catalog.searchID(request.getProductId());
+			if (product != null) {
+				Lock lock = lockOf(product);
+				lock.lock();
+				try {
+					product.setPrice(request.getNewProductPrice());
+					log(Journal.CHANGE_PRODUCT_PRICE, now(), request, 0);
+					newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
+					newResult.setStatus(Result.PRODUCT_FOUND);
+					newResult.setProduct(product);
+				} finally {
+					lock.unlock();
+				}
+			} else {
+				newResult.setSuccess(Result.OPERATION_FAILURE);
+				newResult.setStatus(Result.PRODUCT_NOT_FOUND);
+			}
+
+			return newResult;
+		} finally {
+			endOperation();
 		}
+	}
 
-		return newResult;
+	/**
+	 * Renames a product identified by id
+	 * 
+	 * @param request product id and the new product name
+	 * @return either a Result.OPERATION_SUCCESSFUL with product info or
+	 *         Result.OPERATION_FAILURE if the product is missing or the name is
+	 *         taken
+	 */
+	public Result renameProduct(Request request) {
+		beginOperation();
+		try {
+			Result newResult = new Result();
+			Product product = catalog.searchID(request.getProductId());
+			if (product == null) {
+				newResult.setSuccess(Result.OPERATION_FAILURE);
+				newResult.setStatus(Result.PRODUCT_NOT_FOUND);
+				return newResult;
+			}
+			Lock lock = lockOf(product);
+			lock.lock();
+			try {
+				if (catalog.renameProduct(product, request.getProductName())) {
+					log(Journal.RENAME_PRODUCT, now(), request, 0);
+					newResult.setSuccess(Result.OPERATION_SUCCESSFUL);
+					newResult.setStatus(Result.PRODUCT_FOUND);
+					newResult.setProduct(product);
+				} else {
+					newResult.setSuccess(Result.OPERATION_FAILURE);
+					newResult.setStatus(Result.PRODUCT_FOUND);
+				}
+			} finally {
+				lock.unlock();
+			}
+			return newResult;
+		} finally {
+			endOperation();
+		}
 	}
 
 	/**
@@ -445,6 +1426,199 @@ public class Store implements Serializable {
 		return resultIterator;
 	}
 
+	/**
+	 * gets a safe iterator for the orders still open for a product
+	 * 
+	 * @param request request with the product id
+	 * @return safe iterator for the product's orders, empty if the product is not
+	 *         found
+	 */
+	public SafeOrderIterator getOrderList(Request request) {
+		Product product = catalog.searchID(request.getProductId());
+		List<Order> productOrders = Collections.emptyList();
+		if (product != null) {
+			productOrders = orders.getOrders(product);
+		}
+		return new SafeOrderIterator(productOrders.iterator());
+	}
+
+	/**
+	 * gets a safe iterator for the products whose stock is at or below their
+	 * reorder level, found by scanning the stock and reorder level columns
+	 * 
+	 * @return safe iterator for the products low on stock
+	 */
+	public SafeProductIterator getLowStockList() {
+		return new SafeProductIterator(catalog.lowStock().iterator());
+	}
+
+	/**
+	 * Orders every product whose stock is at or below its reorder level and
+	 * has no outstanding order, as checkForOrder does for one product
+	 * 
+	 * @return a result holding the messages of the orders made, null if none
+	 */
+	public Result checkForOrders() {
+		Result output = new Result();
+		StringBuilder message = new StringBuilder();
+		Request request = new Request();
+		for (Product item : catalog.lowStock()) {
+			request.setProductId(item.getId());
+			String ordered = checkForOrder(request).getMessage();
+			if (ordered != null) {
+				message.append(ordered).append('\n');
+			}
+		}
+		output.setMessage(message.length() == 0 ? null : message.toString());
+		output.setSuccess(Result.OPERATION_SUCCESSFUL);
+		return output;
+	}
+
+	/**
+	 * gets read only views of the products in the Catalog. The same view is
+	 * returned for every product, nothing is copied.
+	 * 
+	 * @return iterator over product views
+	 */
+	public Iterator<ProductView> getProductViews() {
+		return ViewIterator.ofProducts(catalog.iterator());
+	}
+
+	/**
+	 * gets read only views of the members in MemberList. The same view is
+	 * returned for every member, nothing is copied.
+	 * 
+	 * @return iterator over member views
+	 */
+	public Iterator<MemberView> getMemberViews() {
+		return ViewIterator.ofMembers(memberList.iterator());
+	}
+
+	/**
+	 * gets read only views of the orders in PendingOrders. The same view is
+	 * returned for every order, nothing is copied.
+	 * 
+	 * @return iterator over order views
+	 */
+	public Iterator<OrderView> getOrderViews() {
+		return ViewIterator.ofOrders(orders.iterator());
+	}
+
+	/**
+	 * gets a page of the products in catalog order. Products added while paging
+	 * are listed on a later page if they are added after the last product listed
+	 * and may be missed if they are added at the same time as the page is read.
+	 * 
+	 * @param request the page size and the token of the previous page, null for
+	 *                the first page
+	 * @return the page
+	 */
+	public Page getProductPage(Request request) {
+		long position = readPageToken(request.getPageToken(), PRODUCT_PAGE);
+		Iterator<Product> products = catalog.after(position);
+		Page page = new Page();
+		while (products.hasNext() && page.getResults().size() < pageSize(request)) {
+			Result result = new Result();
+			result.setProduct(products.next());
+			page.addResult(result);
+			position++;
+		}
+		if (products.hasNext()) {
+			page.setNextToken(pageToken(PRODUCT_PAGE, position));
+		}
+		return page;
+	}
+
+	/**
+	 * gets a page of the members in id order
+	 * 
+	 * @param request the page size and the token of the previous page, null for
+	 *                the first page
+	 * @return the page
+	 */
+	public Page getMemberPage(Request request) {
+		long position = readPageToken(request.getPageToken(), MEMBER_PAGE);
+		Iterator<Member> members = memberList.iterator((int) position + 1);
+		Page page = new Page();
+		while (members.hasNext() && page.getResults().size() < pageSize(request)) {
+			Member member = members.next();
+			Result result = new Result();
+			result.setMember(member);
+			page.addResult(result);
+			position = member.getId();
+		}
+		if (members.hasNext()) {
+			page.setNextToken(pageToken(MEMBER_PAGE, position));
+		}
+		return page;
+	}
+
+	/**
+	 * gets a page of the outstanding orders in the order they were placed
+	 * 
+	 * @param request the page size and the token of the previous page, null for
+	 *                the first page
+	 * @return the page
+	 */
+	public Page getOrderPage(Request request) {
+		long position = readPageToken(request.getPageToken(), ORDER_PAGE);
+		Iterator<Order> pending = orders.after((int) position).iterator();
+		Page page = new Page();
+		while (pending.hasNext() && page.getResults().size() < pageSize(request)) {
+			Order order = pending.next();
+			Result result = new Result();
+			result.setOrder(order);
+			page.addResult(result);
+			position = order.getOrderId();
+		}
+		if (pending.hasNext()) {
+			page.setNextToken(pageToken(ORDER_PAGE, position));
+		}
+		return page;
+	}
+
+	/**
+	 * gets the products in catalog order as a lazy stream. Each product is copied
+	 * into its own Result when the stream reaches it.
+	 * 
+	 * @return stream of products
+	 */
+	public Stream<Result> getProductStream() {
+		return catalog.values().stream().map(product -> {
+			Result result = new Result();
+			result.setProduct(product);
+			return result;
+		});
+	}
+
+	/**
+	 * gets the members in id order as a lazy stream. Each member is copied into
+	 * its own Result when the stream reaches it.
+	 * 
+	 * @return stream of members
+	 */
+	public Stream<Result> getMemberStream() {
+		return memberList.values().stream().map(member -> {
+			Result result = new Result();
+			result.setMember(member);
+			return result;
+		});
+	}
+
+	/**
+	 * gets the outstanding orders in the order they were placed as a lazy stream.
+	 * Each order is copied into its own Result when the stream reaches it.
+	 * 
+	 * @return stream of orders
+	 */
+	public Stream<Result> getOrderStream() {
+		return orders.values().stream().map(order -> {
+			Result result = new Result();
+			result.setOrder(order);
+			return result;
+		});
+	}
+
 	/**
 	 * gets information about a product by id from the catalog
 	 * 
@@ -515,67 +1689,992 @@ public class Store implements Serializable {
 	 *         transactions.
 	 */
 	public LinkedList<Result> printTransactions(Request request) {
-		LinkedList<Result> output = new LinkedList<Result>();
-		Member customer = memberList.search(request.getMemberId());
-		if (customer == null) {
-			Result result1 = new Result();
-			result1.setMessage("Error invalid member ID!");
-			output.add(result1);
-			return output;
-		}
-		LinkedList<Transaction> transactions = customer.getTransactions();
-		Iterator<Transaction> list = transactions.iterator();
-		while (list.hasNext()) {
-			Transaction purchase = list.next();
-			if (purchase.compareTo(request.getStartDate()) >= 0 && purchase.compareTo(request.getEndDate()) <= 0) {
+		long started = METRICS.printTransactions.start();
+		boolean succeeded = false;
+		try {
+			LinkedList<Result> output = new LinkedList<Result>();
+			Member customer = memberList.search(request.getMemberId());
+			if (customer == null) {
+				Result result1 = new Result();
+				result1.setMessage("Error invalid member ID!");
+				output.add(result1);
+				return output;
+			}
+			List<Transaction> transactions = new LinkedList<Transaction>();
+			long start = request.getStartDate().getTime();
+			long last = request.getEndDate().getTime();
+			long[] found = null;
+			TransactionHistory current = history();
+			synchronized (customer) {
+				for (Transaction purchase : customer.getTransactions()) {
+					long time = purchase.getTimePurchased().getTime();
+					if (time >= start && time <= last) {
+						transactions.add(purchase);
+					}
+				}
+				if (customer.getLastTransaction() != TransactionHistory.NONE && current != null) {
+					try {
+						found = current.find(customer.getId(), customer.getLastTransaction(), start, last);
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+					}
+				}
+			}
+			if (found != null) {
+				try {
+					transactions.addAll(current.read(found));
+				} catch (IOException ioe) {
+					ioe.printStackTrace();
+				}
+			}
+			for (Transaction purchase : transactions) {
 				Result result2 = new Result();
 				result2.setMessage(purchase.toString());
 				output.add(result2);
 			}
+			succeeded = true;
+			return output;
+		} finally {
+			METRICS.printTransactions.record(started, succeeded);
 		}
-		return output;
+	}
+
+	/**
+	 * Builds a report of the sales of the whole store between two dates. The
+	 * transaction history is scanned a window at a time on all cores and the
+	 * transactions still held by members are added member by member, each part is
+	 * aggregated on its own and the parts are merged. Sales made while the report
+	 * runs may be left out.
+	 * 
+	 * @param request - containing the two Date objects
+	 * @return the report, or null if the transaction history could not be read
+	 */
+	public SalesReport getSalesReport(Request request) {
+		long start = request.getStartDate().getTime();
+		long last = request.getEndDate().getTime();
+		TransactionHistory current = history();
+		int windows = current == null ? 0 : current.getWindowCount();
+		try {
+			SalesReport fromHistory = IntStream.range(0, windows).parallel().mapToObj(window -> {
+				SalesReport part = new SalesReport();
+				try {
+					current.scan(window, (memberId, time, amount, price, id, name) -> {
+						if (time >= start && time <= last) {
+							part.add(memberId, time, amount, price, id, name);
+						}
+					});
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+				return part;
+			}).reduce(SalesReport::merge).orElseGet(SalesReport::new);
+			SalesReport held = memberList.values().parallelStream().collect(SalesReport::new, (part, member) -> {
+				synchronized (member) {
+					for (Transaction purchase : member.getTransactions()) {
+						long time = purchase.getTimePurchased().getTime();
+						if (time >= start && time <= last) {
+							Product item = purchase.getItem();
+							part.add(member.getId(), time, purchase.getAmountPurchased(), item.getPrice(), item.getId(),
+									item.getName());
+						}
+					}
+				}
+			}, SalesReport::merge);
+			return fromHistory.merge(held);
+		} catch (UncheckedIOException uioe) {
+			uioe.getCause().printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Opens the transaction history the first time it is needed
+	 * 
+	 * @return the history or null if it could not be opened
+	 */
+	private TransactionHistory history() {
+		TransactionHistory current = history;
+		if (current == null) {
+			synchronized (this) {
+				// a closed store no longer owns its files
+				if (history == null && !closed) {
+					try {
+						history = TransactionHistory.open(file(HISTORY_FILE));
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+					}
+				}
+				current = history;
+			}
+		}
+		return current;
+	}
 
+	/**
+	 * gets the running sales totals, kept up to date by every checkout
+	 * 
+	 * @return the sales totals
+	 */
+	public SalesTotals getSalesTotals() {
+		return sales;
 	}
 
 	/**
-	 * Retrieves store data from disk
+	 * Gets the metrics of the store operations and the sizes of the store
 	 * 
+	 * @return the metrics
+	 */
+	public static StoreMetrics getMetrics() {
+		return METRICS;
+	}
+
+	/**
+	 * @return the store last created or retrieved, null if none
+	 */
+	static Store current() {
+		return store;
+	}
+
+	/**
+	 * @return number of members
+	 */
+	int memberCount() {
+		return memberList.size();
+	}
+
+	/**
+	 * @return number of products
+	 */
+	int productCount() {
+		return catalog.size();
+	}
+
+	/**
+	 * @return number of pending orders
+	 */
+	int orderCount() {
+		return orders.size();
+	}
+
+	/**
+	 * @return number of records in the journal, 0 if there is no journal
+	 */
+	int journalSize() {
+		Journal current = journal;
+		return current == null ? 0 : current.size();
+	}
+
+	/**
+	 * @return size of the transaction history in bytes, 0 if there is none
+	 */
+	long historySize() {
+		TransactionHistory current = history;
+		return current == null ? 0 : current.getEnd();
+	}
+
+	/**
+	 * Records a transaction in the transaction history and adds it to the sales
+	 * totals. If the history can not be written the transaction is held by the
+	 * member until the next save or retrieve. The caller holds the lock of the
+	 * member.
+	 * 
+	 * @param customer the member
+	 * @param purchase the transaction
+	 */
+	private void addTransaction(Member customer, Transaction purchase) {
+		Product item = purchase.getItem();
+		sales.add(customer.getId(), purchase.getTimePurchased().getTime(), purchase.getAmountPurchased(),
+				item.getPrice(), item.getId());
+		TransactionHistory current = history();
+		if (current != null) {
+			try {
+				memberList.setLastTransaction(customer,
+						current.append(customer.getId(), customer.getLastTransaction(), purchase));
+				return;
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		customer.addTransaction(purchase);
+	}
+
+	/**
+	 * Adds up the sales totals from the transaction history and the transactions
+	 * held by members. Used when a store is read from a Java serialized file,
+	 * which holds no sales totals, before the journal is replayed and nothing
+	 * else runs at the same time.
+	 */
+	private void rebuildSalesTotals() {
+		SalesTotals rebuilt = new SalesTotals();
+		TransactionHistory current = history();
+		if (current != null) {
+			try {
+				IntStream.range(0, current.getWindowCount()).parallel().forEach(window -> {
+					try {
+						current.scan(window,
+								(memberId, time, amount, price, id, name) -> rebuilt.add(memberId, time, amount, price, id));
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+				});
+			} catch (UncheckedIOException uioe) {
+				uioe.getCause().printStackTrace();
+			}
+		}
+		for (Member member : memberList) {
+			for (Transaction purchase : member.getTransactions()) {
+				Product item = purchase.getItem();
+				rebuilt.add(member.getId(), purchase.getTimePurchased().getTime(), purchase.getAmountPurchased(),
+						item.getPrice(), item.getId());
+			}
+		}
+		sales = rebuilt;
+	}
+
+	/**
+	 * Moves transactions held by members into the transaction history. They are
+	 * there after reading an older snapshot or when the history could not be
+	 * written.
+	 */
+	private void moveTransactionsToHistory() {
+		TransactionHistory current = history();
+		if (current == null) {
+			return;
+		}
+		for (Member member : memberList) {
+			synchronized (member) {
+				LinkedList<Transaction> held = member.getTransactions();
+				while (!held.isEmpty()) {
+					try {
+						memberList.setLastTransaction(member,
+								current.append(member.getId(), member.getLastTransaction(), held.getFirst()));
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+						return;
+					}
+					held.removeFirst();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sells a basket. The caller holds the lock of the member and the locks of
+	 * all products of the basket.
+	 * 
+	 * @param customer   the member
+	 * @param items      the product of each line
+	 * @param amounts    the quantity of each line
+	 * @param quantities the total quantity of each product
+	 * @param receipt    the result to fill in
+	 */
+	private void sellBasket(Member customer, List<Product> items, int[] amounts, Map<Product, Long> quantities,
+			Result receipt) {
+		for (Map.Entry<Product, Long> entry : quantities.entrySet()) {
+			Product item = entry.getKey();
+			if (entry.getValue() > item.getStock()) {
+				receipt.setSuccess(Result.OPERATION_FAILURE);
+				receipt.setStatus(Result.OUT_OF_STOCK);
+				receipt.setProduct(item);
+				return;
+			}
+		}
+		Date time = now();
+		long total = 0;
+		// the lines are journaled as checkouts of one product each
+		Request logged = new Request();
+		logged.setMemberId(customer.getId());
+		for (int index = 0; index < items.size(); index++) {
+			Product item = items.get(index);
+			Transaction purchase = new Transaction(item, amounts[index], time);
+			addTransaction(customer, purchase);
+			item.setStock(item.getStock() - amounts[index]);
+			logged.setProductId(item.getId());
+			logged.setQuantity(amounts[index]);
+			log(Journal.CHECKOUT_MEMBER, time, logged, 0);
+			Result sold = new Result();
+			sold.setSuccess(Result.OPERATION_SUCCESSFUL);
+			sold.setMessage(purchase.toString());
+			sold.setProductPrice(purchase.getTotalPrice());
+			receipt.addItem(sold);
+			total += purchase.getTotalPrice();
+		}
+		String message = null;
+		for (Product item : quantities.keySet()) {
+			if (item.getStock() <= item.getReOrderLevel() && !orders.contains(item)) {
+				Order order = createOrder(item, item.getReOrderLevel() * 2, time);
+				orders.addOrderItem(order);
+				Request check = new Request();
+				check.setProductId(item.getId());
+				log(Journal.CHECK_FOR_ORDER, time, check, order.getOrderId());
+				message = (message == null ? "" : message + "\n") + item.getName() + " has been ordered.\n"
+						+ order.toString();
+			}
+		}
+		receipt.setSuccess(Result.OPERATION_SUCCESSFUL);
+		receipt.setMember(customer);
+		receipt.setOrderTotalPrice(total);
+		receipt.setMessage(message);
+	}
+
+	/**
+	 * Gets the lock of a product. Products share a fixed number of locks, so
+	 * operations on different products only wait for each other when their
+	 * products happen to share a lock.
+	 * 
+	 * @param product the product
+	 * @return the lock to hold while reading and changing the product
+	 */
+	private Lock lockOf(Product product) {
+		return productLocks[lockIndex(product)];
+	}
+
+	/**
+	 * Gets the locks of several products in the order they are always taken in,
+	 * so operations locking more than one product cannot deadlock
+	 * 
+	 * @param products the products
+	 * @return the locks, each one once
+	 */
+	private Lock[] locksOf(Collection<Product> products) {
+		int[] indexes = new int[products.size()];
+		int count = 0;
+		for (Product product : products) {
+			indexes[count++] = lockIndex(product);
+		}
+		Arrays.sort(indexes);
+		Lock[] locks = new Lock[count];
+		int distinct = 0;
+		for (int index = 0; index < count; index++) {
+			if (index == 0 || indexes[index] != indexes[index - 1]) {
+				locks[distinct++] = productLocks[indexes[index]];
+			}
+		}
+		return Arrays.copyOf(locks, distinct);
+	}
+
+	private static int lockIndex(Product product) {
+		int hash = System.identityHashCode(product);
+		return (hash ^ (hash >>> 16)) & (PRODUCT_LOCKS - 1);
+	}
+
+	/**
+	 * Lookup key matching the case insensitive compare of Product.matchesID and
+	 * Product.matchesName. The catalog indexes and the sales totals and reports
+	 * all key products by it, so a product is found the same way everywhere.
+	 * 
+	 * @param value id or name
+	 * @return key for the product
+	 */
+	static String key(String value) {
+		return value.toLowerCase(Locale.ROOT);
+	}
+
+	private static Lock[] productLocks() {
+		Lock[] locks = new Lock[PRODUCT_LOCKS];
+		for (int index = 0; index < locks.length; index++) {
+			locks[index] = new ReentrantLock();
+		}
+		return locks;
+	}
+
+	/**
+	 * The page size asked for, or the default page size
+	 * 
+	 * @param request the page request
+	 * @return number of results on a page
+	 */
+	private int pageSize(Request request) {
+		return request.getPageSize() > 0 ? request.getPageSize() : DEFAULT_PAGE_SIZE;
+	}
+
+	/**
+	 * Makes the token handed out with a page. The token holds the listing it
+	 * belongs to and where the page ended.
+	 * 
+	 * @param listing  the listing
+	 * @param position position of the last result on the page
+	 * @return the token
+	 */
+	private static String pageToken(char listing, long position) {
+		return listing + Long.toString(position, Character.MAX_RADIX);
+	}
+
+	/**
+	 * Reads a token made by pageToken
+	 * 
+	 * @param token   the token, null for the first page
+	 * @param listing the listing being paged
+	 * @return position of the last result on the previous page, 0 for the first
+	 *         page
+	 * @throws IllegalArgumentException if the token was not handed out for the
+	 *                                  listing
+	 */
+	private static long readPageToken(String token, char listing) {
+		if (token == null) {
+			return 0;
+		}
+		if (token.length() < 2 || token.charAt(0) != listing) {
+			throw new IllegalArgumentException("Invalid page token " + token);
+		}
+		try {
+			return Long.parseLong(token.substring(1), Character.MAX_RADIX);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid page token " + token);
+		}
+	}
+
+	/**
+	 * The time to stamp an operation with. While the journal is replayed this is
+	 * the time the operation was first made.
+	 * 
+	 * @return the operation time
+	 */
+	private Date now() {
+		if (replaying != null) {
+			return replaying.getTime();
+		}
+		return new Date(System.currentTimeMillis());
+	}
+
+	/**
+	 * Creates the member for an enrollment. While the journal is replayed the
+	 * member gets the id it was first given.
+	 * 
+	 * @param request Member information
+	 * @return the new member
+	 */
+	private Member createMember(Request request) {
+		int id;
+		if (replaying != null) {
+			id = replaying.getId();
+			memberIds.reserve(id);
+		} else {
+			id = memberIds.allocate();
+		}
+		return new Member(id, request.getMemberName(), request.getMemberAddress(), request.getMemberPhoneNumber(),
+				request.getMemberJoinDate(), request.getMemberFees());
+	}
+
+	/**
+	 * Creates an order. While the journal is replayed the order gets the id it was
+	 * first given.
+	 * 
+	 * @param product  the product to order
+	 * @param quantity amount to order
+	 * @param time     when the order is placed
+	 * @return the new order
+	 */
+	private Order createOrder(Product product, int quantity, Date time) {
+		int id;
+		if (replaying != null) {
+			id = replaying.getId();
+			orderIds.reserve(id);
+		} else {
+			id = orderIds.allocate();
+		}
+		return new Order(id, product, quantity, time);
+	}
+
+	/**
+	 * Starts an operation that changes the store. Any number of operations run at
+	 * once, they lock the members and products they touch. Only a save waits for
+	 * the running operations to finish so the snapshot is consistent.
+	 */
+	private void beginOperation() {
+		snapshotLock.readLock().lock();
+	}
+
+	/**
+	 * Ends an operation started by beginOperation. Once the journal is long
+	 * enough a save is started in the background to compact it.
+	 */
+	private void endOperation() {
+		snapshotLock.readLock().unlock();
+		Journal current = journal;
+		if (current != null && current.size() >= COMPACTION_THRESHOLD && compacting.compareAndSet(false, true)) {
+			SAVER.execute(() -> {
+				try {
+					if (!closed) {
+						save(this);
+					}
+				} finally {
+					compacting.set(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Appends a successful operation to the journal. A store that has not been
+	 * saved or retrieved yet has no journal and nothing is logged. The caller
+	 * holds the locks of the members and products changed, so records for the
+	 * same member or product are written in the order they were applied.
+	 * 
+	 * @param operation the journal operation
+	 * @param time      when the operation was made
+	 * @param request   the request of the operation
+	 * @param id        the member or order id the operation handed out, 0 if none
+	 */
+	private void log(int operation, Date time, Request request, int id) {
+		Journal current = journal;
+		if (current == null) {
+			return;
+		}
+		try {
+			current.write(operation, time, request, id);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			closeJournal();
+		}
+	}
+
+	/**
+	 * Runs a journal record against the store
+	 * 
+	 * @param entry the record to run
+	 */
+	private void replay(Journal.Entry entry) {
+		Request request = entry.getRequest();
+		switch (entry.getOperation()) {
+		case Journal.ENROLL_MEMBER:
+			enrollMember(request);
+			break;
+		case Journal.REMOVE_MEMBER:
+			removeMember(request);
+			break;
+		case Journal.ADD_PRODUCT:
+			addProduct(request);
+			break;
+		case Journal.CHECKOUT_MEMBER:
+			checkoutMember(request);
+			break;
+		case Journal.CHECK_FOR_ORDER:
+			checkForOrder(request);
+			break;
+		case Journal.PROCESS_SHIPMENT:
+			processShipment(request);
+			break;
+		case Journal.CHANGE_PRODUCT_PRICE:
+			changeProductPrice(request);
+			break;
+		case Journal.RENAME_PRODUCT:
+			renameProduct(request);
+			break;
+		}
+	}
+
+	/**
+	 * Replays the journal written since the snapshot was taken and keeps
+	 * appending to it. This runs before the store is handed out, on one thread.
+	 * 
+	 * @return false if there is no journal belonging to the snapshot
+	 * @throws IOException file error
+	 */
+	private boolean replayJournal() throws IOException {
+		if (journalEpoch == 0 || !new File(file(JOURNAL_FILE)).exists()) {
+			return false;
+		}
+		Journal.Reader reader;
+		try {
+			reader = new Journal.Reader(file(JOURNAL_FILE));
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		}
+		try {
+			boolean found = reader.getEpoch() == journalEpoch;
+			while ((replaying = reader.next()) != null) {
+				if (replaying.getOperation() == Journal.MARK) {
+					// records after the mark of the snapshot belong to it
+					found |= replaying.getEpoch() == journalEpoch;
+				} else if (found) {
+					replay(replaying);
+				}
+			}
+			if (!found) {
+				return false;
+			}
+		} finally {
+			replaying = null;
+			reader.close();
+		}
+		journal = Journal.append(file(JOURNAL_FILE), reader);
+		return true;
+	}
+
+	/**
+	 * Stops logging to the journal
+	 */
+	private synchronized void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			journal = null;
+		}
+	}
+
+	/**
+	 * Closes the transaction history, it is opened again when next needed
+	 */
+	private synchronized void closeHistory() {
+		if (history != null) {
+			try {
+				history.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			history = null;
+		}
+	}
+
+	/**
+	 * Sets up the locks, id allocators and sales totals of a store read from an
+	 * older Java serialized snapshot. The id counters follow the store in the
+	 * file.
+	 * 
+	 * @param input stream to read from
+	 * @throws IOException            file error
+	 * @throws ClassNotFoundException class error
+	 */
+	private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+		input.defaultReadObject();
+		snapshotLock = new ReentrantReadWriteLock();
+		productLocks = productLocks();
+		memberIds = new IdAllocator(1);
+		sales = new SalesTotals();
+		compacting = new AtomicBoolean();
+		orderIds = new IdAllocator(1);
+	}
+
+	/**
+	 * Retrieves store data from disk. The snapshot is read and then the journal of
+	 * operations made since the snapshot is replayed on top of it. Snapshots
+	 * written with Java serialization by older versions are still read. The
+	 * store in use waits while the data is read and is only closed once the data
+	 * is loaded, if loading fails it goes on as before.
+	 * 
+	 * @return a Store object, or null if the data could not be read
+	 */
+	public static synchronized Store retrieve() {
+		METRICS.register();
+		long started = METRICS.retrieve.start();
+		Store loaded = null;
+		try {
+			synchronized (persistence(null)) {
+				Store previous = store;
+				if (previous == null) {
+					loaded = load(null);
+					if (loaded != null) {
+						store = loaded;
+					}
+					return loaded;
+				}
+				previous.snapshotLock.writeLock().lock();
+				try {
+					// the history end is written to the file before it is read, the
+					// history is opened again if the old store goes on
+					previous.closeHistory();
+					loaded = load(null);
+					if (loaded != null) {
+						previous.close();
+						store = loaded;
+					}
+					return loaded;
+				} finally {
+					previous.snapshotLock.writeLock().unlock();
+				}
+			}
+		} finally {
+			METRICS.retrieve.record(started, loaded != null);
+		}
+	}
+
+	/**
+	 * Opens the store kept in a directory, for a StoreRegistry. A store saved
+	 * there is retrieved, otherwise the directory is created with an empty store
+	 * that is saved at once so its operations are journaled.
+	 * 
+	 * @param directory the directory of the store's data files
+	 * @return the store, or null if it could not be read or created
+	 */
+	static Store open(File directory) {
+		METRICS.register();
+		long started = METRICS.retrieve.start();
+		Store opened = null;
+		try {
+			synchronized (persistence(directory)) {
+				if (new File(directory, DATA_FILE).exists()) {
+					opened = load(directory);
+				} else if (directory.isDirectory() || directory.mkdirs()) {
+					Store created = new Store();
+					created.directory = directory;
+					if (save(created)) {
+						opened = created;
+					}
+				}
+				return opened;
+			}
+		} finally {
+			METRICS.retrieve.record(started, opened != null);
+		}
+	}
+
+	/**
+	 * Stops logging and closes the data files of a store that is replaced or no
+	 * longer used. Operations still made on it are not saved.
+	 */
+	void close() {
+		synchronized (persistence(directory)) {
+			closed = true;
+			closeJournal();
+			closeHistory();
+		}
+	}
+
+	/**
+	 * Reads the snapshot and replays the journal of a directory
+	 * 
+	 * @param directory the directory of the data files, null for the working
+	 *                  directory
 	 * @return a Store object
 	 */
-	public static Store retrieve() {
+	private static Store load(File directory) {
+		Store loaded = null;
 		try {
-			FileInputStream file = new FileInputStream("StoreData");
-			ObjectInputStream input = new ObjectInputStream(file);
-			store = (Store) input.readObject();
-			Member.retrieve(input);
-			Order.retrieve(input);
-			return store;
+			long historyEnd = -1;
+			BufferedInputStream file = new BufferedInputStream(new FileInputStream(file(directory, DATA_FILE)));
+			if (Snapshot.matches(file)) {
+				DataInputStream input = new DataInputStream(file);
+				Snapshot snapshot = Snapshot.read(input);
+				input.close();
+				METRICS.snapshot(new File(file(directory, DATA_FILE)).length());
+				loaded = new Store(snapshot);
+				historyEnd = snapshot.getHistoryEnd();
+			} else {
+				ObjectInputStream input = new ObjectInputStream(file);
+				loaded = (Store) input.readObject();
+				loaded.memberIds = new IdAllocator((int) input.readObject());
+				loaded.orderIds = new IdAllocator((int) input.readObject());
+				input.close();
+			}
+			loaded.directory = directory;
+			if (historyEnd >= 0 && loaded.history() != null) {
+				// drop transactions written after the snapshot, the journal adds them back
+				loaded.history.truncate(historyEnd);
+			}
+			loaded.moveTransactionsToHistory();
+			if (historyEnd < 0) {
+				// a Java serialized file has no sales totals, add them up once
+				loaded.rebuildSalesTotals();
+			}
+			boolean journaled = loaded.replayJournal();
+			if (!journaled) {
+				// no journal for this snapshot, take a new one to start logging
+				save(loaded);
+			}
+			return loaded;
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
-			return null;
+			METRICS.error(ioe);
 		} catch (ClassNotFoundException cnfe) {
 			cnfe.printStackTrace();
-			return null;
+			METRICS.error(cnfe);
 		}
+		if (loaded != null) {
+			loaded.close();
+		}
+		return null;
 	}
 
 	/**
-	 * Saves the Store object
+	 * Saves the Store object as a new snapshot. Operations that change the store
+	 * only wait while the store is copied, the copy is written while they go on.
+	 * The snapshot is written to a temporary file that replaces the old snapshot
+	 * once it is on disk, so a crash while saving leaves the old snapshot and its
+	 * journal in place.
 	 * 
 	 * @return true iff the data could be saved
 	 */
 	public static boolean save() {
+		return save(store);
+	}
+
+	/**
+	 * Saves the store in the background at a fixed interval, replacing any
+	 * interval set before
+	 * 
+	 * @param seconds time between saves, 0 to stop saving in the background
+	 */
+	public static synchronized void saveEvery(long seconds) {
+		if (autoSave != null) {
+			autoSave.cancel(false);
+			autoSave = null;
+		}
+		if (seconds > 0) {
+			autoSave = SAVER.scheduleWithFixedDelay(() -> {
+				Store current = store;
+				if (current != null) {
+					save(current);
+				}
+			}, seconds, seconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Saves a store, such as one of a StoreRegistry, the way save does
+	 * 
+	 * @param current the store to write
+	 * @return true iff the data could be saved
+	 */
+	public static boolean save(Store current) {
+		long started = METRICS.save.start();
+		boolean saved = false;
 		try {
-			FileOutputStream file = new FileOutputStream("StoreData");
-			ObjectOutputStream output = new ObjectOutputStream(file);
-			output.writeObject(store);
-			Member.save(output);
-			Order.save(output);
-			file.close();
+			saved = write(current);
+			return saved;
+		} finally {
+			METRICS.save.record(started, saved);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of a store. Under its write lock the store is frozen and
+	 * a mark for the new snapshot is written to the journal, which takes the
+	 * same time however large the store is. The frozen store is then copied and
+	 * written without holding the lock: the catalog table copies a chunk of its
+	 * columns the first time it changes after the freeze, members and orders
+	 * record what a change replaces and the sales totals seal the sales made so
+	 * far. Once the snapshot is on disk the journal
+	 * records before the mark are dropped.
+	 * 
+	 * @param current the store to write
+	 * @return true iff the data could be saved
+	 */
+	private static boolean write(Store current) {
+		synchronized (persistence(current.directory)) {
+			if (current.closed) {
+				// a compaction queued before the store was closed, its files may
+				// belong to a store opened since
+				return false;
+			}
+			long previousEpoch = current.journalEpoch;
+			Snapshot snapshot;
+			Journal marked = current.journal;
+			long mark = -1;
+			current.snapshotLock.readLock().lock();
+			try {
+				current.moveTransactionsToHistory();
+			} finally {
+				current.snapshotLock.readLock().unlock();
+			}
+			long epoch;
+			do {
+				epoch = new Random().nextLong();
+			} while (epoch == 0 || epoch == previousEpoch);
+			long historyEnd;
+			int nextMemberId;
+			int nextOrderId;
+			ProductTable products;
+			current.snapshotLock.writeLock().lock();
+			try {
+				TransactionHistory history = current.history();
+				historyEnd = history == null ? 0 : history.getEnd();
+				nextMemberId = current.memberIds.peek();
+				nextOrderId = current.orderIds.peek();
+				products = current.catalog.freeze();
+				current.memberList.freeze();
+				current.orders.freeze();
+				current.sales.freeze();
+				if (marked != null) {
+					mark = marked.mark(epoch);
+				} else {
+					current.journal = Journal.create(current.file(JOURNAL_FILE), epoch);
+				}
+				current.journalEpoch = epoch;
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+				METRICS.error(ioe);
+				current.memberList.thaw();
+				current.orders.thaw();
+				current.sales.settle();
+				current.closeJournal();
+				return false;
+			} finally {
+				current.snapshotLock.writeLock().unlock();
+			}
+			// no sale is added to the sealed totals once the lock is released
+			SalesTotals sales = current.sales.settle();
+			try {
+				snapshot = Snapshot.capture(epoch, historyEnd, nextMemberId, nextOrderId, products,
+						current.memberList.frozen(), current.orders.frozen(), sales);
+			} finally {
+				current.memberList.thaw();
+				current.orders.thaw();
+			}
+			try {
+				TransactionHistory history = current.history;
+				if (history != null) {
+					history.force();
+				}
+				FileOutputStream file = new FileOutputStream(current.file(TEMPORARY_DATA_FILE));
+				try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+					snapshot.write(output);
+					output.flush();
+					file.getFD().sync();
+				}
+				Files.move(Paths.get(current.file(TEMPORARY_DATA_FILE)), Paths.get(current.file(DATA_FILE)),
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				METRICS.snapshot(new File(current.file(DATA_FILE)).length());
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+				METRICS.error(ioe);
+				return false;
+			}
+			if (marked != null) {
+				try {
+					marked.truncate(current.file(JOURNAL_FILE), snapshot.getEpoch(), mark);
+				} catch (IOException ioe) {
+					// the snapshot is saved, the journal is shortened by the next save
+					ioe.printStackTrace();
+				}
+			}
 			return true;
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
-			return false;
 		}
 	}
+
+	/**
+	 * Gets the path of one of the data files of the store
+	 * 
+	 * @param name the file name
+	 * @return the path
+	 */
+	private String file(String name) {
+		return file(directory, name);
+	}
+
+	/**
+	 * Gets the path of a data file in a directory
+	 * 
+	 * @param directory the directory, null for the working directory
+	 * @param name      the file name
+	 * @return the path
+	 */
+	private static String file(File directory, String name) {
+		return directory == null ? name : new File(directory, name).getPath();
+	}
+
+	/**
+	 * Gets the lock that keeps saves and loads of the data files of a directory
+	 * apart
+	 * 
+	 * @param directory the directory, null for the working directory
+	 * @return the lock
+	 */
+	static Object persistence(File directory) {
+		return PERSISTENCE.computeIfAbsent(directory == null ? "" : directory.getAbsolutePath(), path -> new Object());
+	}
 }
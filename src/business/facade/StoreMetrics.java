@@ -0,0 +1,181 @@
+package business.facade;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the store: the metrics of every operation that is timed and the
+ * sizes of the store, read when they are asked for. They are exported as JMX
+ * MBeans, business.facade:type=Store for the sizes and
+ * business.facade:type=StoreOperation,name=... for each operation, and can be
+ * appended to a file as text at a fixed interval.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class StoreMetrics implements StoreMetricsMBean {
+	private static final String DOMAIN = "business.facade";
+	private static final int SAMPLING = Integer.getInteger("store.metricsSampling", 64);
+
+	final OperationMetrics enrollMember = new OperationMetrics("enrollMember", SAMPLING);
+	final OperationMetrics checkoutMember = new OperationMetrics("checkoutMember", SAMPLING);
+	final OperationMetrics checkoutBasket = new OperationMetrics("checkoutBasket", SAMPLING);
+	final OperationMetrics checkForOrder = new OperationMetrics("checkForOrder", SAMPLING);
+	final OperationMetrics processShipment = new OperationMetrics("processShipment", SAMPLING);
+	final OperationMetrics printTransactions = new OperationMetrics("printTransactions", SAMPLING);
+	final OperationMetrics save = new OperationMetrics("save", 1);
+	final OperationMetrics retrieve = new OperationMetrics("retrieve", 1);
+	private final List<OperationMetrics> operations = Collections.unmodifiableList(Arrays.asList(enrollMember,
+			checkoutMember, checkoutBasket, checkForOrder, processShipment, printTransactions, save, retrieve));
+	private volatile long snapshotBytes;
+	private volatile String lastError;
+	private boolean registered;
+	private ScheduledExecutorService reporter;
+	private ScheduledFuture<?> reporting;
+
+	/**
+	 * @return the metrics of every operation that is timed
+	 */
+	public List<OperationMetrics> getOperations() {
+		return operations;
+	}
+
+	@Override
+	public int getMembers() {
+		Store current = Store.current();
+		return current == null ? 0 : current.memberCount();
+	}
+
+	@Override
+	public int getProducts() {
+		Store current = Store.current();
+		return current == null ? 0 : current.productCount();
+	}
+
+	@Override
+	public int getPendingOrders() {
+		Store current = Store.current();
+		return current == null ? 0 : current.orderCount();
+	}
+
+	@Override
+	public int getJournalRecords() {
+		Store current = Store.current();
+		return current == null ? 0 : current.journalSize();
+	}
+
+	@Override
+	public long getHistoryBytes() {
+		Store current = Store.current();
+		return current == null ? 0 : current.historySize();
+	}
+
+	@Override
+	public long getSnapshotBytes() {
+		return snapshotBytes;
+	}
+
+	@Override
+	public String getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Notes the size of a snapshot saved or retrieved
+	 *
+	 * @param bytes size of the snapshot
+	 */
+	void snapshot(long bytes) {
+		snapshotBytes = bytes;
+	}
+
+	/**
+	 * Notes an error saving or retrieving the store
+	 *
+	 * @param error the error
+	 */
+	void error(Exception error) {
+		lastError = new Date() + " " + error;
+	}
+
+	@Override
+	public String report() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(
+				"%s members %d products %d pending orders %d journal records %d history bytes %d snapshot bytes %d%n",
+				new Date(), getMembers(), getProducts(), getPendingOrders(), getJournalRecords(), getHistoryBytes(),
+				snapshotBytes));
+		for (OperationMetrics operation : operations) {
+			operation.appendTo(builder);
+		}
+		if (lastError != null) {
+			builder.append("last error ").append(lastError).append(System.lineSeparator());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Registers the MBeans with the platform MBean server, once
+	 */
+	synchronized void register() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(this, new ObjectName(DOMAIN, "type", "Store"));
+			for (OperationMetrics operation : operations) {
+				server.registerMBean(operation,
+						new ObjectName(DOMAIN + ":type=StoreOperation,name=" + operation.getName()));
+			}
+		} catch (JMException jme) {
+			jme.printStackTrace();
+		}
+	}
+
+	/**
+	 * Appends the report to a file at a fixed interval, replacing any interval
+	 * set before
+	 *
+	 * @param seconds  time between reports, 0 to stop reporting
+	 * @param fileName the file to append to
+	 */
+	public synchronized void reportEvery(long seconds, String fileName) {
+		if (reporting != null) {
+			reporting.cancel(false);
+			reporting = null;
+		}
+		if (seconds <= 0) {
+			return;
+		}
+		if (reporter == null) {
+			reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "Store metrics");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		reporting = reporter.scheduleWithFixedDelay(() -> {
+			try (Writer writer = new FileWriter(fileName, true)) {
+				writer.write(report());
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+}
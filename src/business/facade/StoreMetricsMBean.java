@@ -0,0 +1,49 @@
+package business.facade;
+
+/**
+ * Management interface of the sizes of the store
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public interface StoreMetricsMBean {
+	/**
+	 * @return number of members
+	 */
+	int getMembers();
+
+	/**
+	 * @return number of products
+	 */
+	int getProducts();
+
+	/**
+	 * @return number of orders waiting for a shipment
+	 */
+	int getPendingOrders();
+
+	/**
+	 * @return number of operations in the journal since the last snapshot
+	 */
+	int getJournalRecords();
+
+	/**
+	 * @return size of the transaction history in bytes
+	 */
+	long getHistoryBytes();
+
+	/**
+	 * @return size of the last snapshot saved or retrieved in bytes
+	 */
+	long getSnapshotBytes();
+
+	/**
+	 * @return the last error saving or retrieving the store, null if none
+	 */
+	String getLastError();
+
+	/**
+	 * @return the sizes and the metrics of every operation as text
+	 */
+	String report();
+}
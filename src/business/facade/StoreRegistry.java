@@ -0,0 +1,171 @@
+package business.facade;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Hosts many independent stores, one per location, in one process. Every
+ * store has its own catalog, members, orders and data files, kept in a
+ * directory named after the store id under the root directory. A store is
+ * loaded the first time it is used and saved and dropped from memory once it
+ * has not been used for a while.
+ *
+ * Operations are routed to a store by its id and run on the calling thread, so
+ * operations on different stores run on all cores without sharing any locks.
+ * A store is not evicted while an operation is running on it.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class StoreRegistry {
+	private static final Pattern STORE_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+	private File root;
+	private long idleNanos;
+	private Map<String, Shard> shards = new ConcurrentHashMap<String, Shard>();
+	private ScheduledExecutorService evictor;
+
+	/**
+	 * One store of the registry and its use
+	 *
+	 */
+	private static class Shard {
+		private Store store;
+		private int users;
+		private long lastUsed = System.nanoTime();
+		private boolean evicted;
+	}
+
+	/**
+	 * Creates a registry
+	 *
+	 * @param root        directory holding a directory per store
+	 * @param idleSeconds time a store is kept in memory after it was last used,
+	 *                    0 to keep stores until the registry is closed
+	 */
+	public StoreRegistry(File root, long idleSeconds) {
+		this.root = root;
+		this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+		if (idleSeconds > 0) {
+			evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "Store evictor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(1, idleSeconds / 2);
+			evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Runs an operation on a store, loading the store first if it is not in
+	 * memory. The store must not be kept after the operation returns, it may be
+	 * evicted.
+	 *
+	 * @param <T>       type of the result
+	 * @param storeId   id of the store, letters, digits, - and _
+	 * @param operation the operation
+	 * @return the result of the operation
+	 * @throws IllegalArgumentException if the store id is not valid
+	 * @throws IllegalStateException    if the store cannot be loaded
+	 */
+	public <T> T apply(String storeId, Function<Store, T> operation) {
+		if (!STORE_ID.matcher(storeId).matches()) {
+			throw new IllegalArgumentException("Invalid store id " + storeId);
+		}
+		Shard shard;
+		Store current;
+		while (true) {
+			shard = shards.computeIfAbsent(storeId, id -> new Shard());
+			synchronized (shard) {
+				if (shard.evicted) {
+					// evicted since it was looked up, look up the new one
+					continue;
+				}
+				if (shard.store == null) {
+					shard.store = Store.open(new File(root, storeId));
+					if (shard.store == null) {
+						shard.evicted = true;
+						shards.remove(storeId, shard);
+						throw new IllegalStateException("Unable to load store " + storeId);
+					}
+				}
+				shard.users++;
+				current = shard.store;
+				break;
+			}
+		}
+		try {
+			return operation.apply(current);
+		} finally {
+			synchronized (shard) {
+				shard.users--;
+				shard.lastUsed = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * @return number of stores in memory
+	 */
+	public int size() {
+		return shards.size();
+	}
+
+	/**
+	 * Saves and drops the stores not used for the idle time
+	 */
+	public void evictIdle() {
+		long now = System.nanoTime();
+		for (Map.Entry<String, Shard> entry : shards.entrySet()) {
+			Shard shard = entry.getValue();
+			synchronized (shard) {
+				if (shard.users == 0 && now - shard.lastUsed >= idleNanos) {
+					evict(entry.getKey(), shard);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops evicting, saves every store in memory and drops them. Called once no
+	 * more operations are made.
+	 */
+	public void close() {
+		if (evictor != null) {
+			evictor.shutdown();
+		}
+		for (Map.Entry<String, Shard> entry : shards.entrySet()) {
+			Shard shard = entry.getValue();
+			synchronized (shard) {
+				evict(entry.getKey(), shard);
+			}
+		}
+	}
+
+	/**
+	 * Saves a store and drops it, the caller holds the lock of the shard. A
+	 * store that cannot be saved is kept in memory and tried again later.
+	 *
+	 * @param storeId id of the store
+	 * @param shard   the shard
+	 */
+	private void evict(String storeId, Shard shard) {
+		if (shard.evicted || shard.store == null) {
+			return;
+		}
+		if (!Store.save(shard.store)) {
+			return;
+		}
+		shard.store.close();
+		shard.store = null;
+		shard.evicted = true;
+		shards.remove(storeId, shard);
+	}
+}
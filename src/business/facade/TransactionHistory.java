@@ -0,0 +1,617 @@
+package business.facade;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import business.entities.Product;
+import business.entities.Transaction;
+
+/**
+ * Append only file holding the transactions of every member. The file is
+ * memory mapped in fixed size windows that are mapped the first time they are
+ * touched, so only the parts of the history that are read are paged in. Each
+ * record points back to the previous record of the same member, members only
+ * need to keep the position of their newest record. Appends from several
+ * threads reserve their space with a compare and set on the end of the file and
+ * then write into the mapping without locking.
+ *
+ * Date range lookups use a timeline per member, the times and positions of the
+ * member's records sorted by time in primitive arrays. A timeline is built from
+ * the member's chain the first time the member is looked up and kept up to date
+ * by later appends, after that a lookup is a binary search.
+ *
+ * Products are written once per version. A transaction record refers to a
+ * product record holding the version of the product it was bought at, the
+ * first transaction of a new version appends the product record.
+ *
+ * Record layout: int length, int member id, long previous record, long time,
+ * int amount, long product record. Product records have member id
+ * PRODUCT_RECORD and hold long price in cents, int stock, int reorder level,
+ * name, id. Strings are a short length followed by UTF-8 bytes. A record never
+ * crosses a window and is padded to a multiple of 4 bytes. The length of a
+ * record is written last with a release store and read with an acquire load, so
+ * a scan running while records are appended only reads records once they are
+ * complete.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+class TransactionHistory implements Closeable {
+	/**
+	 * Position meaning the member has no transactions
+	 */
+	public static final long NONE = 0;
+
+	private static final int MAGIC = 0x53544858;
+	private static final int VERSION = 1;
+	private static final int PRODUCT_RECORD = -1;
+	private static final int HEADER = 16;
+	private static final int END_POSITION = 8;
+	private static final int WINDOW_SIZE = 1 << 23;
+	private static final int FIXED_SIZE = 4 + 4 + 8 + 8 + 4 + 8;
+	private static final int PRODUCT_SIZE = 4 + 4 + 8 + 4 + 4 + 2 + 2;
+	private static final VarHandle LENGTH = MethodHandles.byteBufferViewVarHandle(int[].class,
+			ByteOrder.BIG_ENDIAN);
+
+	private FileChannel channel;
+	private volatile MappedByteBuffer[] windows = new MappedByteBuffer[0];
+	private AtomicLong end = new AtomicLong();
+	private Map<Integer, Timeline> timelines = new ConcurrentHashMap<Integer, Timeline>();
+	private Map<VersionKey, Long> productPositions = new ConcurrentHashMap<VersionKey, Long>();
+	private Map<Long, Product> products = new ConcurrentHashMap<Long, Product>();
+
+	/**
+	 * Receives the records of a scan
+	 *
+	 */
+	interface RecordVisitor {
+		/**
+		 * Called for every record
+		 *
+		 * @param memberId the member
+		 * @param time     time of the purchase in epoch millis
+		 * @param amount   number of items purchased
+		 * @param price    price of one item in cents
+		 * @param id       the product id
+		 * @param name     the product name
+		 */
+		void visit(int memberId, long time, int amount, long price, String id, String name);
+	}
+
+	private TransactionHistory(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens the history file, creating it if needed
+	 *
+	 * @param fileName history file
+	 * @return the history
+	 * @throws IOException file error or the file is not a history file
+	 */
+	public static TransactionHistory open(String fileName) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		TransactionHistory history = new TransactionHistory(channel);
+		try {
+			ByteBuffer header = history.window(0);
+			if (channel.size() == 0 || header.getInt(0) == 0) {
+				header.putInt(0, MAGIC);
+				header.putInt(4, VERSION);
+				history.setEnd(HEADER);
+			} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException(fileName + " is not a transaction history");
+			} else {
+				history.end.set(header.getLong(END_POSITION));
+			}
+		} catch (IOException ioe) {
+			history.close();
+			throw ioe;
+		}
+		return history;
+	}
+
+	/**
+	 * @return position just past the last record
+	 */
+	public long getEnd() {
+		return end.get();
+	}
+
+	/**
+	 * Drops the records written after a position, used to line the history up
+	 * with a snapshot before its journal is replayed. Nothing may be appended at
+	 * the same time.
+	 *
+	 * @param position end of the history when the snapshot was taken
+	 * @throws IOException file error
+	 */
+	public void truncate(long position) throws IOException {
+		long dropped = end.get();
+		if (position >= HEADER && position < dropped) {
+			setEnd(position);
+			// a length left behind would pass for a complete record once the space
+			// is used again
+			byte[] zeros = new byte[(int) Math.min(WINDOW_SIZE, dropped - position)];
+			for (long from = position; from < dropped;) {
+				int offset = (int) (from % WINDOW_SIZE);
+				int length = (int) Math.min(Math.min(WINDOW_SIZE - offset, dropped - from), zeros.length);
+				ByteBuffer buffer = window((int) (from / WINDOW_SIZE)).duplicate();
+				buffer.position(offset);
+				buffer.put(zeros, 0, length);
+				from += length;
+			}
+			timelines.clear();
+			productPositions.clear();
+			products.clear();
+		}
+	}
+
+	/**
+	 * Drops the timeline of a member that was removed
+	 *
+	 * @param memberId the member
+	 */
+	public void forget(int memberId) {
+		timelines.remove(memberId);
+	}
+
+	/**
+	 * Appends a transaction of a member. The caller holds the lock of the member.
+	 *
+	 * @param memberId    the member
+	 * @param previous    position of the member's newest record or NONE
+	 * @param transaction the transaction
+	 * @return position of the new record, the member's newest record from now on
+	 * @throws IOException file error
+	 */
+	public long append(int memberId, long previous, Transaction transaction) throws IOException {
+		long product = productPosition(transaction.getItem());
+		long position = reserve(FIXED_SIZE);
+		ByteBuffer buffer = record(position, memberId);
+		buffer.putLong(previous);
+		buffer.putLong(transaction.getTimePurchased().getTime());
+		buffer.putInt(transaction.getAmountPurchased());
+		buffer.putLong(product);
+		publish(position, FIXED_SIZE);
+		Timeline timeline = timelines.get(memberId);
+		if (timeline != null) {
+			timeline.add(transaction.getTimePurchased().getTime(), position);
+		}
+		return position;
+	}
+
+	/**
+	 * Finds the records of a member made between two times. The caller holds the
+	 * lock of the member.
+	 *
+	 * @param memberId the member
+	 * @param newest   position of the member's newest record
+	 * @param start    first time to include, in epoch millis
+	 * @param last     last time to include, in epoch millis
+	 * @return positions of the matching records, oldest first
+	 * @throws IOException file error
+	 */
+	public long[] find(int memberId, long newest, long start, long last) throws IOException {
+		Timeline timeline = timelines.get(memberId);
+		if (timeline == null) {
+			timeline = new Timeline();
+			List<Long> chain = new ArrayList<Long>();
+			long limit = end.get();
+			for (long position = newest; position != NONE && position < limit;) {
+				chain.add(position);
+				position = window((int) (position / WINDOW_SIZE)).getLong((int) (position % WINDOW_SIZE) + 8);
+			}
+			for (int index = chain.size() - 1; index >= 0; index--) {
+				long position = chain.get(index);
+				timeline.add(window((int) (position / WINDOW_SIZE)).getLong((int) (position % WINDOW_SIZE) + 16),
+						position);
+			}
+			timelines.put(memberId, timeline);
+		}
+		return timeline.find(start, last);
+	}
+
+	/**
+	 * Reads records found by find
+	 *
+	 * @param positions positions of the records
+	 * @return the transactions in the same order
+	 * @throws IOException file error
+	 */
+	public List<Transaction> read(long[] positions) throws IOException {
+		List<Transaction> transactions = new ArrayList<Transaction>(positions.length);
+		for (long position : positions) {
+			transactions.add(readRecord(window((int) (position / WINDOW_SIZE)), (int) (position % WINDOW_SIZE)));
+		}
+		return transactions;
+	}
+
+	/**
+	 * @return number of windows holding records, windows can be scanned on their
+	 *         own since no record crosses a window
+	 */
+	public int getWindowCount() {
+		return (int) ((end.get() + WINDOW_SIZE - 1) / WINDOW_SIZE);
+	}
+
+	/**
+	 * Visits the records of a window in the order they were written. Records
+	 * being appended while the scan runs may be left out.
+	 *
+	 * @param index   the window
+	 * @param visitor receives the records
+	 * @throws IOException file error
+	 */
+	public void scan(int index, RecordVisitor visitor) throws IOException {
+		ByteBuffer buffer = window(index).duplicate();
+		int offset = index == 0 ? HEADER : 0;
+		long limit = Math.min(WINDOW_SIZE, end.get() - (long) index * WINDOW_SIZE);
+		while (offset + Integer.BYTES * 2 <= limit) {
+			int length = (int) LENGTH.getAcquire(buffer, offset);
+			if (length == 0) {
+				// the rest of the window is padding or a record still being written
+				break;
+			}
+			int memberId = buffer.getInt(offset + 4);
+			if (memberId != PRODUCT_RECORD) {
+				long time = buffer.getLong(offset + 16);
+				int amount = buffer.getInt(offset + 24);
+				Product item = product(buffer.getLong(offset + 28));
+				visitor.visit(memberId, time, amount, item.getPrice(), item.getId(), item.getName());
+			}
+			offset += length;
+		}
+	}
+
+	/**
+	 * Records the end in the header and flushes the mapped windows to disk. The
+	 * end written is only guaranteed to cover the appends that have returned.
+	 *
+	 * @throws IOException file error
+	 */
+	public void force() throws IOException {
+		setEnd(end.get());
+		for (MappedByteBuffer window : windows) {
+			if (window != null) {
+				window.force();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		setEnd(end.get());
+		windows = new MappedByteBuffer[0];
+		channel.close();
+	}
+
+	private Transaction readRecord(ByteBuffer window, int offset) throws IOException {
+		ByteBuffer buffer = window.duplicate();
+		buffer.position(offset + 16);
+		Date time = new Date(buffer.getLong());
+		int amount = buffer.getInt();
+		return new Transaction(product(buffer.getLong()), amount, time);
+	}
+
+	/**
+	 * Gets the position of the product record of a version, appending the record
+	 * the first time the version is bought
+	 *
+	 * @param item the product version
+	 * @return position of its product record
+	 * @throws IOException file error
+	 */
+	private long productPosition(Product item) throws IOException {
+		VersionKey key = new VersionKey(item);
+		Long position = productPositions.get(key);
+		if (position == null) {
+			try {
+				position = productPositions.computeIfAbsent(key, version -> {
+					byte[] name = encode(item.getName());
+					byte[] id = encode(item.getId());
+					int length = PRODUCT_SIZE + name.length + id.length;
+					try {
+						long start = reserve(length);
+						writeProduct(record(start, PRODUCT_RECORD), item, name, id);
+						publish(start, length);
+						products.put(start, item);
+						return start;
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+				});
+			} catch (UncheckedIOException uioe) {
+				throw uioe.getCause();
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Gets the product version held by a product record. Versions are read once
+	 * and shared by every transaction read that refers to them.
+	 *
+	 * @param position position of the product record
+	 * @return the product version
+	 * @throws IOException file error
+	 */
+	private Product product(long position) throws IOException {
+		Product item = products.get(position);
+		if (item == null) {
+			if (position < HEADER || position % Integer.BYTES != 0 || position + PRODUCT_SIZE > end.get()
+					|| position % WINDOW_SIZE + PRODUCT_SIZE > WINDOW_SIZE) {
+				throw new IOException("Malformed transaction history, no product record at " + position);
+			}
+			ByteBuffer buffer = window((int) (position / WINDOW_SIZE)).duplicate();
+			int offset = (int) (position % WINDOW_SIZE);
+			int length = (int) LENGTH.getAcquire(buffer, offset);
+			if (buffer.getInt(offset + 4) != PRODUCT_RECORD || length < PRODUCT_SIZE
+					|| offset + length > WINDOW_SIZE) {
+				throw new IOException("Malformed transaction history, no product record at " + position);
+			}
+			buffer.position(offset + 8);
+			buffer.limit(offset + length);
+			try {
+				item = readProduct(buffer);
+			} catch (RuntimeException re) {
+				// a string length running past the record
+				throw new IOException("Malformed transaction history, bad product record at " + position, re);
+			}
+			Product existing = products.putIfAbsent(position, item);
+			if (existing != null) {
+				return existing;
+			}
+			productPositions.putIfAbsent(new VersionKey(item), position);
+		}
+		return item;
+	}
+
+	/**
+	 * Reserves space for a record at the end, skipping to the next window if the
+	 * record does not fit in the current one
+	 *
+	 * @param length length of the record, without padding
+	 * @return position of the record
+	 */
+	private long reserve(int length) {
+		length = padded(length);
+		long current;
+		long position;
+		do {
+			current = end.get();
+			position = current;
+			if (position % WINDOW_SIZE + length > WINDOW_SIZE) {
+				position = (position / WINDOW_SIZE + 1) * WINDOW_SIZE;
+			}
+		} while (!end.compareAndSet(current, position + length));
+		return position;
+	}
+
+	/**
+	 * Starts writing a record. Its length is left 0 until publish.
+	 *
+	 * @param position position of the record
+	 * @param memberId member id of the record
+	 * @return buffer positioned after the member id
+	 * @throws IOException file error
+	 */
+	private ByteBuffer record(long position, int memberId) throws IOException {
+		ByteBuffer buffer = window((int) (position / WINDOW_SIZE)).duplicate();
+		buffer.position((int) (position % WINDOW_SIZE) + Integer.BYTES);
+		buffer.putInt(memberId);
+		return buffer;
+	}
+
+	/**
+	 * Finishes writing a record by storing its length, after everything else in
+	 * it is written
+	 *
+	 * @param position position of the record
+	 * @param length   length of the record, without padding
+	 * @throws IOException file error
+	 */
+	private void publish(long position, int length) throws IOException {
+		LENGTH.setRelease(window((int) (position / WINDOW_SIZE)), (int) (position % WINDOW_SIZE), padded(length));
+	}
+
+	private static int padded(int length) {
+		return (length + Integer.BYTES - 1) & -Integer.BYTES;
+	}
+
+	private void writeProduct(ByteBuffer buffer, Product item, byte[] name, byte[] id) {
+		buffer.putLong(item.getPrice());
+		buffer.putInt(item.getStock());
+		buffer.putInt(item.getReOrderLevel());
+		buffer.putShort((short) name.length);
+		buffer.put(name);
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+	}
+
+	private Product readProduct(ByteBuffer buffer) {
+		long price = buffer.getLong();
+		int stock = buffer.getInt();
+		int reOrderLevel = buffer.getInt();
+		String name = decode(buffer);
+		String id = decode(buffer);
+		return Product.version(name, id, stock, price, reOrderLevel);
+	}
+
+	private void setEnd(long position) {
+		end.set(position);
+		windows[0].putLong(END_POSITION, position);
+	}
+
+	/**
+	 * Gets a window, mapping it and growing the file the first time it is used
+	 *
+	 * @param index the window number
+	 * @return the window
+	 * @throws IOException file error
+	 */
+	private MappedByteBuffer window(int index) throws IOException {
+		MappedByteBuffer[] current = windows;
+		if (index < current.length && current[index] != null) {
+			return current[index];
+		}
+		synchronized (this) {
+			current = windows;
+			if (index >= current.length) {
+				current = Arrays.copyOf(current, index + 1);
+			}
+			if (current[index] == null) {
+				current[index] = channel.map(FileChannel.MapMode.READ_WRITE, (long) index * WINDOW_SIZE,
+						WINDOW_SIZE);
+			}
+			windows = current;
+			return current[index];
+		}
+	}
+
+	private static byte[] encode(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("String too long for the transaction history");
+		}
+		return bytes;
+	}
+
+	private static String decode(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * What makes one product version different from another, the stock is left
+	 * out since it changes with every purchase
+	 *
+	 */
+	private static class VersionKey {
+		private String name;
+		private String id;
+		private long price;
+		private int reOrderLevel;
+
+		VersionKey(Product item) {
+			name = item.getName();
+			id = item.getId();
+			price = item.getPrice();
+			reOrderLevel = item.getReOrderLevel();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, id, price, reOrderLevel);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof VersionKey)) {
+				return false;
+			}
+			VersionKey other = (VersionKey) obj;
+			return Objects.equals(name, other.name) && Objects.equals(id, other.id)
+					&& price == other.price && reOrderLevel == other.reOrderLevel;
+		}
+	}
+
+	/**
+	 * Times and positions of a member's records sorted by time
+	 *
+	 */
+	private static class Timeline {
+		private long[] times = new long[8];
+		private long[] positions = new long[8];
+		private int size;
+
+		/**
+		 * Adds a record. Records normally come in time order and go at the end,
+		 * one made earlier than the newest is put in its place.
+		 *
+		 * @param time     time of the record
+		 * @param position position of the record
+		 */
+		synchronized void add(long time, long position) {
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			int index = size;
+			if (size > 0 && times[size - 1] > time) {
+				index = after(time);
+				System.arraycopy(times, index, times, index + 1, size - index);
+				System.arraycopy(positions, index, positions, index + 1, size - index);
+			}
+			times[index] = time;
+			positions[index] = position;
+			size++;
+		}
+
+		/**
+		 * @param start first time to include
+		 * @param last  last time to include
+		 * @return positions of the records in the range, oldest first
+		 */
+		synchronized long[] find(long start, long last) {
+			int from = before(start);
+			int to = after(last);
+			return from < to ? Arrays.copyOfRange(positions, from, to) : new long[0];
+		}
+
+		/**
+		 * @param time the time
+		 * @return index of the first record at or after the time
+		 */
+		private int before(long time) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (times[middle] < time) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @param time the time
+		 * @return index of the first record after the time
+		 */
+		private int after(long time) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (times[middle] <= time) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package ui;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import business.entities.Money;
+import business.entities.views.MemberView;
+import business.entities.views.OrderView;
+import business.entities.views.ProductView;
+import business.facade.Request;
+import business.facade.Result;
+import business.facade.Store;
+
+/**
+ * Runs a file of commands against the store without prompting. Every line is
+ * one command: the number of the command as in the interactive interface,
+ * followed by the values it would prompt for, separated by commas. Values
+ * holding commas or quotes are quoted like in CSV. Blank lines and lines
+ * starting with # are skipped.
+ *
+ * <pre>
+ * 1,name,address,phone,fee             enroll a member
+ * 2,member id                          remove a member
+ * 3,name,id,stock,price,reorder level  add a product
+ * 4,member id,product id,amount,...    check out a basket of one or more lines
+ * 5,order id                           process a shipment
+ * 6,product id,price                   change a price
+ * 9,member id,mm/dd/yyyy,mm/dd/yyyy    print transactions
+ * 10, 11, 12                           list orders, members or products
+ * 13                                   save
+ * </pre>
+ *
+ * A line that cannot be parsed or whose command fails is reported with its line
+ * number on standard error and the next line is run. Listings and transactions
+ * are printed to standard output, the other commands print nothing, and a
+ * summary of the lines run and their throughput is printed at the end.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class BatchInterface {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int ADDMEMBER = 1;
+	private static final int REMOVEMEMBER = 2;
+	private static final int ADDPRODUCT = 3;
+	private static final int CHECKOUT = 4;
+	private static final int PROCESSSHIPMENT = 5;
+	private static final int CHANGEPRICE = 6;
+	private static final int PRINTTRANSACTIONS = 9;
+	private static final int LISTOUTSTANDINGORDERS = 10;
+	private static final int LISTMEMBERS = 11;
+	private static final int LISTPRODUCT = 12;
+	private static final int SAVE = 13;
+
+	private Store store;
+	private PrintWriter output;
+	private SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+	private SimpleDateFormat listingDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+	private StringBuilder line = new StringBuilder();
+	private int commands;
+	private int failures;
+
+	/**
+	 * A line that could not be run
+	 *
+	 */
+	static class LineException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		LineException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Creates a batch run against a store
+	 *
+	 * @param store the store to run the commands against
+	 */
+	public BatchInterface(Store store) {
+		this(store, new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE)));
+	}
+
+	/**
+	 * Creates a batch run that writes listings and transactions somewhere else
+	 * than standard output
+	 *
+	 * @param store  the store to run the commands against
+	 * @param output where to write listings and transactions
+	 */
+	BatchInterface(Store store, PrintWriter output) {
+		this.store = store;
+		this.output = output;
+	}
+
+	/**
+	 * Runs the next commands against another store
+	 *
+	 * @param store the store
+	 */
+	void setStore(Store store) {
+		this.store = store;
+	}
+
+	/**
+	 * Runs every command of a file
+	 *
+	 * @param fileName the file, - for standard input
+	 * @return true iff every command succeeded
+	 */
+	public boolean run(String fileName) {
+		long start = System.nanoTime();
+		int lineNumber = 0;
+		try (BufferedReader reader = new BufferedReader(open(fileName), BUFFER_SIZE)) {
+			String text;
+			while ((text = reader.readLine()) != null) {
+				lineNumber++;
+				if (text.isEmpty() || text.charAt(0) == '#') {
+					continue;
+				}
+				commands++;
+				try {
+					execute(text);
+				} catch (LineException le) {
+					fail(lineNumber, le.getMessage());
+				}
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			output.flush();
+			return false;
+		}
+		long elapsed = Math.max(1, System.nanoTime() - start);
+		output.printf("%d commands from %d lines in %d ms, %.0f commands/s, %d failed%n", commands, lineNumber,
+				elapsed / 1000000, commands * 1e9 / elapsed, failures);
+		output.flush();
+		return failures == 0;
+	}
+
+	/**
+	 * Runs one command line. Listings and transactions are written to the
+	 * output, the other commands reply with what they changed: the id of the
+	 * member enrolled, the total of a checkout, the stock after a shipment or the
+	 * new price.
+	 *
+	 * @param text the line
+	 * @return the reply, empty if the command has none
+	 * @throws LineException if the line cannot be parsed or the command fails
+	 */
+	String execute(String text) throws LineException {
+		try {
+			return execute(split(text));
+		} catch (NumberFormatException | ArithmeticException e) {
+			throw new LineException("not a number or an amount");
+		} catch (ParseException pe) {
+			throw new LineException("not a date in format mm/dd/yyyy");
+		}
+	}
+
+	/**
+	 * Runs one command
+	 *
+	 * @param fields the fields of the line, the command first
+	 * @return the reply, empty if the command has none
+	 * @throws LineException  if the command fails or has the wrong number of
+	 *                        fields
+	 * @throws ParseException if a date cannot be parsed
+	 */
+	private String execute(List<String> fields) throws LineException, ParseException {
+		int command = Integer.parseInt(fields.get(0).trim());
+		switch (command) {
+		case ADDMEMBER:
+			expect(fields, 5);
+			return enrollMember(fields);
+		case REMOVEMEMBER:
+			expect(fields, 2);
+			removeMember(fields);
+			return "";
+		case ADDPRODUCT:
+			expect(fields, 6);
+			addProduct(fields);
+			return "";
+		case CHECKOUT:
+			if (fields.size() < 4 || fields.size() % 2 != 0) {
+				throw new LineException("expected a member id and pairs of product id and amount");
+			}
+			return checkoutMember(fields);
+		case PROCESSSHIPMENT:
+			expect(fields, 2);
+			return processShipment(fields);
+		case CHANGEPRICE:
+			expect(fields, 3);
+			return changeProductPrice(fields);
+		case PRINTTRANSACTIONS:
+			expect(fields, 4);
+			printTransactions(fields);
+			return "";
+		case LISTOUTSTANDINGORDERS:
+			expect(fields, 1);
+			listOutstandingOrders();
+			return "";
+		case LISTMEMBERS:
+			expect(fields, 1);
+			listMembers();
+			return "";
+		case LISTPRODUCT:
+			expect(fields, 1);
+			listProducts();
+			return "";
+		case SAVE:
+			expect(fields, 1);
+			if (!Store.save(store)) {
+				throw new LineException("failure to save data");
+			}
+			return "";
+		default:
+			throw new LineException("unknown command " + command);
+		}
+	}
+
+	private String enrollMember(List<String> fields) throws LineException {
+		Request request = new Request();
+		request.setMemberName(fields.get(1));
+		request.setMemberAddress(fields.get(2));
+		request.setMemberPhoneNumber(fields.get(3));
+		request.setMemberFees(Money.parse(fields.get(4).trim()));
+		request.setMemberJoinDate(new Date());
+		Result result = store.enrollMember(request);
+		if (!result.getSuccess()) {
+			throw new LineException("unable to enroll member");
+		}
+		return Integer.toString(result.getMemberId());
+	}
+
+	private void removeMember(List<String> fields) throws LineException {
+		Request request = new Request();
+		request.setMemberId(integer(fields.get(1)));
+		if (!store.removeMember(request).getSuccess()) {
+			throw new LineException("member not found");
+		}
+	}
+
+	private void addProduct(List<String> fields) throws LineException {
+		Request request = new Request();
+		request.setProductName(fields.get(1));
+		request.setProductId(fields.get(2));
+		request.setProductStock(integer(fields.get(3)));
+		request.setProductPrice(Money.parse(fields.get(4).trim()));
+		request.setProductReOrderLevel(integer(fields.get(5)));
+		if (!store.addProduct(request).getSuccess()) {
+			throw new LineException("product already in system");
+		}
+	}
+
+	private String checkoutMember(List<String> fields) throws LineException {
+		Request request = new Request();
+		request.setMemberId(integer(fields.get(1)));
+		for (int index = 2; index < fields.size(); index += 2) {
+			int count = integer(fields.get(index + 1));
+			if (count <= 0) {
+				throw new LineException("must order more than 0");
+			}
+			request.addItem(fields.get(index), count);
+		}
+		Result receipt = store.checkoutBasket(request);
+		if (receipt.getSuccess()) {
+			return Money.format(receipt.getOrderTotalPrice());
+		}
+		switch (receipt.getStatus()) {
+		case Result.MEMBER_NOT_FOUND:
+			throw new LineException("member not found, nothing was sold");
+		case Result.PRODUCT_NOT_FOUND:
+			throw new LineException("product " + receipt.getProductId() + " not found, nothing was sold");
+		case Result.OUT_OF_STOCK:
+			throw new LineException("order exceeds stock of " + receipt.getProductName() + ", nothing was sold");
+		default:
+			throw new LineException("checkout failed, nothing was sold");
+		}
+	}
+
+	private String processShipment(List<String> fields) throws LineException {
+		Request request = new Request();
+		request.setOrderId(integer(fields.get(1)));
+		Result result = store.processShipment(request);
+		if (!result.getSuccess()) {
+			throw new LineException("order not found");
+		}
+		return Integer.toString(result.getProductStock());
+	}
+
+	private String changeProductPrice(List<String> fields) throws LineException {
+		Request request = new Request();
+		request.setProductId(fields.get(1));
+		request.setNewProductPrice(Money.parse(fields.get(2).trim()));
+		Result result = store.changeProductPrice(request);
+		if (!result.getSuccess()) {
+			throw new LineException("product not found");
+		}
+		return Money.format(result.getProductPrice());
+	}
+
+	private void printTransactions(List<String> fields) throws LineException, ParseException {
+		Request request = new Request();
+		request.setMemberId(integer(fields.get(1)));
+		Date start = dateFormat.parse(fields.get(2).trim());
+		Date end = dateFormat.parse(fields.get(3).trim());
+		end.setTime(end.getTime() + 86400000);
+		if (start.compareTo(end) > 0) {
+			throw new LineException("invalid dates");
+		}
+		request.setStartDate(start);
+		request.setEndDate(end);
+		List<Result> transactions = store.printTransactions(request);
+		if (!transactions.isEmpty() && "Error invalid member ID!".equals(transactions.get(0).getMessage())) {
+			throw new LineException("invalid member id");
+		}
+		for (Result transaction : transactions) {
+			output.println(transaction.getMessage());
+		}
+	}
+
+	private void listOutstandingOrders() {
+		for (Iterator<OrderView> iterator = store.getOrderViews(); iterator.hasNext();) {
+			OrderView order = iterator.next();
+			line.setLength(0);
+			line.append(order.getOrderId()).append('\t').append(order.getProductName()).append("\t\t")
+					.append(listingDateFormat.format(order.getCreatedDate())).append('\t').append(order.getQuantity());
+			output.println(line);
+		}
+	}
+
+	private void listMembers() {
+		for (Iterator<MemberView> iterator = store.getMemberViews(); iterator.hasNext();) {
+			MemberView member = iterator.next();
+			line.setLength(0);
+			line.append(member.getId()).append('\t').append(member.getName()).append('\t')
+					.append(listingDateFormat.format(member.getJoinDate())).append('\t').append(member.getAddress())
+					.append('\t').append(member.getPhoneNumber());
+			output.println(line);
+		}
+	}
+
+	private void listProducts() {
+		for (Iterator<ProductView> iterator = store.getProductViews(); iterator.hasNext();) {
+			ProductView product = iterator.next();
+			line.setLength(0);
+			line.append(product.getName()).append("\t\t").append(product.getId()).append('\t')
+					.append(product.getStock()).append("\t$");
+			Money.append(line, product.getPrice()).append('\t').append(product.getReOrderLevel());
+			output.println(line);
+		}
+	}
+
+	/**
+	 * Reports a line that could not be run
+	 *
+	 * @param lineNumber number of the line
+	 * @param message    what went wrong
+	 */
+	private void fail(int lineNumber, String message) {
+		failures++;
+		output.flush();
+		System.err.println("line " + lineNumber + ": " + message);
+	}
+
+	/**
+	 * Splits a line into its comma separated fields. A field in double quotes may
+	 * hold commas, and two double quotes in it stand for one.
+	 *
+	 * @param text the line
+	 * @return the fields
+	 * @throws LineException if a quote is not closed
+	 */
+	private static List<String> split(String text) throws LineException {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		int index = 0;
+		int length = text.length();
+		while (true) {
+			field.setLength(0);
+			if (index < length && text.charAt(index) == '"') {
+				index++;
+				while (true) {
+					if (index >= length) {
+						throw new LineException("unclosed quote");
+					}
+					char next = text.charAt(index++);
+					if (next == '"') {
+						if (index < length && text.charAt(index) == '"') {
+							field.append('"');
+							index++;
+						} else {
+							break;
+						}
+					} else {
+						field.append(next);
+					}
+				}
+			}
+			while (index < length && text.charAt(index) != ',') {
+				field.append(text.charAt(index++));
+			}
+			fields.add(field.toString());
+			if (index >= length) {
+				return fields;
+			}
+			index++;
+		}
+	}
+
+	private static void expect(List<String> fields, int count) throws LineException {
+		if (fields.size() != count) {
+			throw new LineException("expected " + (count - 1) + " values after the command");
+		}
+	}
+
+	private static int integer(String field) {
+		return Integer.parseInt(field.trim());
+	}
+
+	private static Reader open(String fileName) throws IOException {
+		if (fileName.equals("-")) {
+			return new InputStreamReader(System.in);
+		}
+		return new FileReader(fileName);
+	}
+}
@@ -0,0 +1,271 @@
+package ui;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import business.facade.Store;
+import business.facade.StoreRegistry;
+
+/**
+ * Serves the store to many tills over TCP on the local machine. A till sends
+ * the command lines of BatchInterface and gets back, for every line in order,
+ * the listing or transaction lines of the command if any, followed by a line
+ * OK with the reply of the command or ERR with the reason it failed. A till may
+ * send many lines without waiting for the replies; replies are flushed once
+ * every line received so far has been answered. The line 0 ends the
+ * connection.
+ *
+ * Every connection is served by its own thread, the store facade takes care of
+ * tills working on the same members and products at once. The project is
+ * compiled for Java 15, which has no virtual threads, so these are platform
+ * threads: at most MAX_TILLS connections are served at once and a till
+ * connecting beyond that gets ERR and is disconnected.
+ *
+ * A server can also host many stores kept in a StoreRegistry. A till then
+ * starts with the line @ followed by the id of its store and every line after
+ * it runs against that store.
+ *
+ * java -cp bin ui.StoreServer [-load | -stores directory] [-port port]
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class StoreServer {
+	private static final int DEFAULT_PORT = 7070;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long SAVE_INTERVAL = Long.getLong("store.saveInterval", 300);
+	private static final long IDLE_SECONDS = Long.getLong("store.idleSeconds", 600);
+	private static final int MAX_TILLS = Integer.getInteger("store.maxTills", 256);
+	// a till thread only reads lines and calls the facade
+	private static final long TILL_STACK_SIZE = 256 * 1024;
+	private static final long TILL_KEEP_ALIVE = 60;
+	private static final String EXIT = "0";
+	private static final char STORE_PREFIX = '@';
+
+	private Store store;
+	private StoreRegistry registry;
+	private ServerSocket server;
+	private ExecutorService tills;
+	private AtomicInteger connections = new AtomicInteger();
+
+	/**
+	 * Creates a server listening on the loopback address
+	 *
+	 * @param store the store to serve
+	 * @param port  the port, 0 for any free port
+	 * @throws IOException if the port cannot be opened
+	 */
+	public StoreServer(Store store, int port) throws IOException {
+		this(port);
+		this.store = store;
+	}
+
+	/**
+	 * Creates a server for many stores listening on the loopback address
+	 *
+	 * @param registry the stores to serve
+	 * @param port     the port, 0 for any free port
+	 * @throws IOException if the port cannot be opened
+	 */
+	public StoreServer(StoreRegistry registry, int port) throws IOException {
+		this(port);
+		this.registry = registry;
+	}
+
+	private StoreServer(int port) throws IOException {
+		server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+		// one platform thread per connection, Java 15 has no virtual threads;
+		// idle threads are kept for a while so tills that reconnect reuse them
+		tills = new ThreadPoolExecutor(0, MAX_TILLS, TILL_KEEP_ALIVE, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), task -> {
+					Thread till = new Thread(null, task, "Store till " + connections.incrementAndGet(),
+							TILL_STACK_SIZE);
+					till.setDaemon(true);
+					return till;
+				});
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server is closed
+	 */
+	public void serve() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				try {
+					tills.execute(() -> serve(socket));
+				} catch (RejectedExecutionException ree) {
+					refuse(socket);
+				}
+			} catch (IOException ioe) {
+				if (!server.isClosed()) {
+					ioe.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections, the connections open are served until the
+	 * tills close them
+	 */
+	public void close() {
+		try {
+			server.close();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		tills.shutdown();
+	}
+
+	/**
+	 * Runs the command lines of one till
+	 *
+	 * @param socket the connection
+	 */
+	private void serve(Socket socket) {
+		try (Socket connection = socket;
+				BufferedReader input = new BufferedReader(
+						new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+				PrintWriter output = new PrintWriter(new BufferedWriter(
+						new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE))) {
+			BatchInterface commands = new BatchInterface(store, output);
+			String storeId = null;
+			String line;
+			while ((line = input.readLine()) != null && !line.equals(EXIT)) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				if (registry == null) {
+					output.print(execute(commands, line));
+				} else if (line.charAt(0) == STORE_PREFIX) {
+					storeId = line.substring(1);
+					output.print("OK");
+				} else if (storeId == null) {
+					output.print("ERR no store selected");
+				} else {
+					String text = line;
+					try {
+						String reply = registry.apply(storeId, shard -> {
+							commands.setStore(shard);
+							return execute(commands, text);
+						});
+						output.print(reply);
+					} catch (IllegalArgumentException | IllegalStateException e) {
+						output.print("ERR " + e.getMessage());
+					}
+				}
+				output.print('\n');
+				// pipelined lines already received are answered before flushing
+				if (!input.ready()) {
+					output.flush();
+				}
+			}
+		} catch (IOException ioe) {
+			// the till went away, nothing to answer
+		}
+	}
+
+	/**
+	 * Turns away a till while MAX_TILLS connections are served
+	 *
+	 * @param socket the connection
+	 */
+	private void refuse(Socket socket) {
+		try (Socket connection = socket) {
+			connection.getOutputStream().write("ERR too many tills\n".getBytes(StandardCharsets.UTF_8));
+		} catch (IOException ioe) {
+			// the till went away, nothing to answer
+		}
+	}
+
+	/**
+	 * Runs a command line
+	 *
+	 * @param commands runs the line
+	 * @param line     the line
+	 * @return the OK or ERR line answering it, without the line end
+	 */
+	private static String execute(BatchInterface commands, String line) {
+		try {
+			String reply = commands.execute(line);
+			return reply.isEmpty() ? "OK" : "OK " + reply;
+		} catch (BatchInterface.LineException le) {
+			return "ERR " + le.getMessage();
+		}
+	}
+
+	/**
+	 * Starts the server
+	 *
+	 * @param args -load to retrieve the saved data first and save it in the
+	 *             background, or -stores followed by the directory of the stores
+	 *             to host, -port followed by the port to listen on
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+		boolean load = false;
+		String stores = null;
+		for (int index = 0; index < args.length; index++) {
+			if (args[index].equals("-load")) {
+				load = true;
+			} else if (args[index].equals("-port") && index + 1 < args.length) {
+				port = Integer.parseInt(args[++index]);
+			} else if (args[index].equals("-stores") && index + 1 < args.length) {
+				stores = args[++index];
+			} else {
+				System.err.println("Usage: java ui.StoreServer [-load | -stores directory] [-port port]");
+				return;
+			}
+		}
+		if (stores != null) {
+			StoreRegistry registry = new StoreRegistry(new File(stores), IDLE_SECONDS);
+			try {
+				StoreServer server = new StoreServer(registry, port);
+				System.out.println("Serving the stores in " + stores + " on port " + server.getPort());
+				server.serve();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			return;
+		}
+		Store store = load ? Store.retrieve() : Store.instance();
+		if (store == null) {
+			System.err.println("Failure to load data.");
+			return;
+		}
+		if (load) {
+			Store.saveEvery(SAVE_INTERVAL);
+		}
+		try {
+			StoreServer server = new StoreServer(store, port);
+			System.out.println("Serving the store on port " + server.getPort());
+			server.serve();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+}
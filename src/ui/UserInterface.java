@@ -3,7 +3,6 @@ package ui;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -11,9 +10,10 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.StringTokenizer;
 
-import business.entities.iterators.SafeMemberIterator;
-import business.entities.iterators.SafeOrderIterator;
-import business.entities.iterators.SafeProductIterator;
+import business.entities.Money;
+import business.entities.views.MemberView;
+import business.entities.views.OrderView;
+import business.entities.views.ProductView;
 import business.facade.Request;
 import business.facade.Result;
 import business.facade.Store;
@@ -46,6 +46,9 @@ public class UserInterface {
 	private static final int LISTPRODUCT = 12;
 	private static final int SAVE = 13;
 	private static final int HELP = 14;
+	private static final long SAVE_INTERVAL = Long.getLong("store.saveInterval", 300);
+	private static final long METRICS_INTERVAL = Long.getLong("store.metricsInterval", 0);
+	private static final String METRICS_FILE = "StoreMetrics.log";
 
 	/**
 	 * UserInterface Constructor this is a Singleton
@@ -54,9 +57,11 @@ public class UserInterface {
 		if (confirm("Load saved data? ")) {
 			store = Store.retrieve();
 			// load data
+			Store.saveEvery(SAVE_INTERVAL);
 		} else {
 			store = Store.instance();
 		}
+		Store.getMetrics().reportEvery(METRICS_INTERVAL, METRICS_FILE);
 	}
 
 	/**
@@ -143,36 +148,48 @@ public class UserInterface {
 	}
 
 	/**
-	 * Gets a double from the user, verifies to make sure it is an double
+	 * Gets an amount of money from the user, verifies to make sure it is an
+	 * amount with at most two decimals
 	 * 
 	 * @param prompt Prompt for user
-	 * @return double from user
+	 * @return amount from user in cents
 	 */
-	private double inputDouble(String prompt) {
-		boolean isDouble = false;
-		double output = 0.0;
+	private long inputMoney(String prompt) {
+		boolean isMoney = false;
+		long output = 0;
 
 		do {
 			String input = getToken(prompt);
 			try {
-				output = Double.parseDouble(input);
-				isDouble = true;
-			} catch (NumberFormatException e) {
-				System.out.println("Not a double. Try again.");
+				output = Money.parse(input);
+				isMoney = true;
+			} catch (NumberFormatException | ArithmeticException e) {
+				System.out.println("Not an amount. Try again.");
 			}
-		} while (!isDouble);
+		} while (!isMoney);
 		return output;
 	}
 
 	/**
-	 * Converts a double into formatted price string
+	 * Converts an amount in cents into formatted price string
+	 * 
+	 * @param price the amount in cents
+	 * @return String that is the formatted amount
+	 */
+	private String formatPrice(long price) {
+		return appendPrice(new StringBuilder(16), price).toString();
+	}
+
+	/**
+	 * Appends an amount in cents as a formatted price, so listing lines can be
+	 * built in one reused StringBuilder
 	 * 
-	 * @param price the desired double to format
-	 * @return String that is the formatted double
+	 * @param line  the line being built
+	 * @param price the amount in cents
+	 * @return the line
 	 */
-	private String formatPrice(Double price) {
-		DecimalFormat df = new DecimalFormat("###,##0.00");
-		return "$" + df.format(price);
+	private StringBuilder appendPrice(StringBuilder line, long price) {
+		return Money.append(line.append('$'), price);
 	}
 
 	/**
@@ -198,6 +215,8 @@ public class UserInterface {
 		returnValue = Store.save();
 		if (returnValue) {
 			System.out.println("Save Successful.");
+			// keep saving in the background once there is saved data to keep
+			Store.saveEvery(SAVE_INTERVAL);
 		} else {
 			System.out.println("Failure to save data.");
 		}
@@ -214,7 +233,7 @@ public class UserInterface {
 		request.setMemberName(inputString("Enter Name :"));
 		request.setMemberAddress(inputString("Enter Address :"));
 		request.setMemberPhoneNumber(inputString("Enter Phone number :"));
-		request.setMemberFees(inputDouble("Enter Fee Paid :"));
+		request.setMemberFees(inputMoney("Enter Fee Paid :"));
 		request.setMemberJoinDate(new Date(System.currentTimeMillis()));
 		Result result = store.enrollMember(request);
 		if (result.getSuccess()) {
@@ -251,7 +270,7 @@ public class UserInterface {
 		request.setProductName(inputString("Enter Product name : "));
 		request.setProductId(inputString("Enter Product id : "));
 		request.setProductStock(inputInteger("Enter Product stock : "));
-		request.setProductPrice(inputDouble("Enter Product price : "));
+		request.setProductPrice(inputMoney("Enter Product price : "));
 		request.setProductReOrderLevel(inputInteger("Enter Product reorder level : "));
 		Result result = store.addProduct(request);
 		if (result.getSuccess()) {
@@ -263,60 +282,62 @@ public class UserInterface {
 
 	/**
 	 * Checkout member at the counter. Requests for the memberId, the ID's of the
-	 * products and quantities that correlate with those. If the product runs low on
-	 * stock the method checks if the item needs to be ordered.
+	 * products and quantities that correlate with those. The basket is checked out
+	 * in one go once it is complete and products that run low on stock are
+	 * ordered.
 	 */
 	private void checkoutMember() {
-		double total = 0.0;
-		LinkedList<Result> display = new LinkedList<Result>();
-		LinkedList<Request> products = new LinkedList<Request>();
 		Request request = new Request();
 		boolean done = false;
 		System.out.println("Member Checkout:");
 		int memberId = inputInteger("Enter Member ID:");
 		request.setMemberId(memberId);
 		Result result = store.getMember(request);
-		if (result.getSuccess()) {
-			do {
-				int count = 0;
-				String idInput = inputString("Enter Product ID (0 to finish):");
-				if (idInput.charAt(0) != '0') {
-					request.setProductId(idInput);
-					result = store.getProduct(request);
-					if (result.getSuccess()) {
-						products.add(request);
-						count = inputInteger("Enter amount : ");
-						if ((count > 0) && (count <= result.getProductStock())) {
-							// Add the product, and count to a transaction list.
-							request.setQuantity(count);
-							display.add(store.checkoutMember(request));
-						} else if (count <= 0) {
-							System.out.println("Must order more than 0.");
-						} else {
-							System.out.println("Order exceeds stock.");
-						}
+		if (!result.getSuccess()) {
+			return;
+		}
+		Request lookup = new Request();
+		do {
+			String idInput = inputString("Enter Product ID (0 to finish):");
+			if (idInput.charAt(0) != '0') {
+				lookup.setProductId(idInput);
+				result = store.getProduct(lookup);
+				if (result.getSuccess()) {
+					int count = inputInteger("Enter amount : ");
+					if ((count > 0) && (count <= result.getProductStock())) {
+						// Add the product, and count to the basket.
+						request.addItem(idInput, count);
+					} else if (count <= 0) {
+						System.out.println("Must order more than 0.");
 					} else {
-						System.out.println("Item not found.");
+						System.out.println("Order exceeds stock.");
 					}
 				} else {
-					done = true;
+					System.out.println("Item not found.");
 				}
-			} while (!done);
-			Iterator<Result> list = display.iterator();
-			System.out.println("Product\t\tQty\tPrice\tTotal");
-			while (list.hasNext()) {
-				result = list.next();
-				total += result.getProductPrice();
-				System.out.println(result.getMessage());
+			} else {
+				done = true;
 			}
-			System.out.println("Order Total:\t\t" + formatPrice(total));
+		} while (!done);
+		if (request.getItems().isEmpty()) {
+			return;
 		}
-		Iterator<Request> items = products.iterator();
-		while (items.hasNext()) {
-			Result status = store.checkForOrder(items.next());
-			if (status.getMessage() != null) {
-				System.out.println(status.getMessage());
+		Result receipt = store.checkoutBasket(request);
+		if (!receipt.getSuccess()) {
+			if (receipt.getStatus() == Result.OUT_OF_STOCK) {
+				System.out.println("Order exceeds stock of " + receipt.getProductName() + ", nothing was sold.");
+			} else {
+				System.out.println("Checkout failed, nothing was sold.");
 			}
+			return;
+		}
+		System.out.println("Product\t\tQty\tPrice\tTotal");
+		for (Result line : receipt.getItems()) {
+			System.out.println(line.getMessage());
+		}
+		System.out.println("Order Total:\t\t" + formatPrice(receipt.getOrderTotalPrice()));
+		if (receipt.getMessage() != null) {
+			System.out.println(receipt.getMessage());
 		}
 	}
 
@@ -356,7 +377,7 @@ public class UserInterface {
 		Request request = new Request();
 		System.out.println("Change product price.");
 		String productID = inputString("Enter product id : ");
-		double productPrice = inputDouble("Enter product price : ");
+		long productPrice = inputMoney("Enter product price : ");
 		request.setProductId(productID);
 		request.setNewProductPrice(productPrice);
 		Result result = store.changeProductPrice(request);
@@ -374,15 +395,18 @@ public class UserInterface {
 	private void getProductInfo() {
 		System.out.println("Get product info.");
 		String searchString = inputString("Enter search string : ");
-		SafeProductIterator iterator = store.getProductList();
+		Iterator<ProductView> iterator = store.getProductViews();
 		System.out.println("Product that matches:");
 		System.out.println("Product\t\tID\tPrice\tStock\tReorder Level");
+		StringBuilder line = new StringBuilder();
 		while (iterator.hasNext()) {
-			Result curResult = iterator.next();
-			if (curResult.getProductName().contains(searchString)) {
-				System.out.println(curResult.getProductName() + "\t\t" + curResult.getProductId() + "\t"
-						+ formatPrice(curResult.getProductPrice()) + "\t" + curResult.getProductStock() + "\t"
-						+ curResult.getProductReOrderLevel());
+			ProductView product = iterator.next();
+			if (product.getName().contains(searchString)) {
+				line.setLength(0);
+				line.append(product.getName()).append("\t\t").append(product.getId()).append('\t');
+				appendPrice(line, product.getPrice()).append('\t').append(product.getStock()).append('\t')
+						.append(product.getReOrderLevel());
+				System.out.println(line);
 			}
 		}
 	}
@@ -394,14 +418,17 @@ public class UserInterface {
 	private void getMemberInfo() {
 		System.out.println("Get member info.");
 		String searchString = inputString("Enter search string : ");
-		SafeMemberIterator iterator = store.getMemberList();
+		Iterator<MemberView> iterator = store.getMemberViews();
 		System.out.println("Members that matches");
 		System.out.println("Name\t\tAddress\t\tFee Paid\tID");
+		StringBuilder line = new StringBuilder();
 		while (iterator.hasNext()) {
-			Result curResult = iterator.next();
-			if (curResult.getMemberName().contains(searchString)) {
-				System.out.println(curResult.getMemberName() + "\t" + curResult.getMemberAddress() + "\t"
-						+ formatPrice(curResult.getMemberFees()) + "\t" + curResult.getMemberId());
+			MemberView member = iterator.next();
+			if (member.getName().contains(searchString)) {
+				line.setLength(0);
+				line.append(member.getName()).append('\t').append(member.getAddress()).append('\t');
+				appendPrice(line, member.getFees()).append('\t').append(member.getId());
+				System.out.println(line);
 			}
 		}
 	}
@@ -457,13 +484,13 @@ public class UserInterface {
 	 * lists all orders the store has not received yet.
 	 */
 	private void listOutstandingOrders() {
-		SafeOrderIterator iterator = store.getOrderList();
+		Iterator<OrderView> iterator = store.getOrderViews();
 		System.out.println("Order List:");
 		System.out.println("ID\tProduct\t\tDate Placed\tAmount Ordered");
 		while (iterator.hasNext()) {
-			Result currentResult = iterator.next();
-			System.out.println(currentResult.getOrderId() + "\t" + currentResult.getProductName() + "\t\t"
-					+ formatDate(currentResult.getOrderCreatedDate()) + "\t" + currentResult.getOrderQuantity());
+			OrderView order = iterator.next();
+			System.out.println(order.getOrderId() + "\t" + order.getProductName() + "\t\t"
+					+ formatDate(order.getCreatedDate()) + "\t" + order.getQuantity());
 		}
 	}
 
@@ -471,13 +498,13 @@ public class UserInterface {
 	 * Displays a list of all members of the store memberList
 	 */
 	private void getMemberList() {
-		SafeMemberIterator iterator = store.getMemberList();
+		Iterator<MemberView> iterator = store.getMemberViews();
 		System.out.println("Member List:");
 		System.out.println("Name\t\tDate Joined\tAddress\t\tPhone");
 		while (iterator.hasNext()) {
-			Result curResult = iterator.next();
-			System.out.println(curResult.getMemberName() + "\t" + formatDate(curResult.getMemberJoinDate()) + "\t"
-					+ curResult.getMemberAddress() + "\t" + curResult.getMemberPhoneNumber());
+			MemberView member = iterator.next();
+			System.out.println(member.getName() + "\t" + formatDate(member.getJoinDate()) + "\t"
+					+ member.getAddress() + "\t" + member.getPhoneNumber());
 		}
 	}
 
@@ -485,14 +512,17 @@ public class UserInterface {
 	 * Displays a list of all products in the store catalog
 	 */
 	private void getProductList() {
-		SafeProductIterator iterator = store.getProductList();
+		Iterator<ProductView> iterator = store.getProductViews();
 		System.out.println("Product List:");
 		System.out.println("Product\t\tID\tStock\tPrice\tReorder Level");
+		StringBuilder line = new StringBuilder();
 		while (iterator.hasNext()) {
-			Result curResult = iterator.next();
-			System.out.println(curResult.getProductName() + "\t\t" + curResult.getProductId() + "\t"
-					+ curResult.getProductStock() + "\t" + formatPrice(curResult.getProductPrice()) + "\t"
-					+ curResult.getProductReOrderLevel());
+			ProductView product = iterator.next();
+			line.setLength(0);
+			line.append(product.getName()).append("\t\t").append(product.getId()).append('\t')
+					.append(product.getStock()).append('\t');
+			appendPrice(line, product.getPrice()).append('\t').append(product.getReOrderLevel());
+			System.out.println(line);
 		}
 	}
 
@@ -589,11 +619,92 @@ public class UserInterface {
 	}
 
 	/**
-	 * program entry point, just calls the input loop
+	 * Imports CSV files and runs a command file without prompting, see
+	 * Store.importProducts, Store.importMembers and BatchInterface for their
+	 * formats
 	 * 
-	 * @param args not used
+	 * @param args optionally -products and -members followed by a CSV file to
+	 *             import, -batch followed by the command file, - for standard
+	 *             input, -load to retrieve the saved data first and -save to save
+	 *             the data at the end
+	 * @return true iff every import and command succeeded
+	 */
+	private static boolean runBatch(String[] args) {
+		String fileName = null;
+		String productFile = null;
+		String memberFile = null;
+		boolean load = false;
+		boolean save = false;
+		boolean valid = true;
+		for (int index = 0; index < args.length && valid; index++) {
+			if (args[index].equals("-load")) {
+				load = true;
+			} else if (args[index].equals("-save")) {
+				save = true;
+			} else if (index + 1 == args.length) {
+				valid = false;
+			} else if (args[index].equals("-batch")) {
+				fileName = args[++index];
+			} else if (args[index].equals("-products")) {
+				productFile = args[++index];
+			} else if (args[index].equals("-members")) {
+				memberFile = args[++index];
+			} else {
+				valid = false;
+			}
+		}
+		if (!valid || (fileName == null && productFile == null && memberFile == null)) {
+			System.err.println("Usage: java ui.UserInterface [-load] [-save] [-products <csv>] [-members <csv>]"
+					+ " [-batch <file or ->]");
+			return false;
+		}
+		store = load ? Store.retrieve() : Store.instance();
+		if (store == null) {
+			System.err.println("Failure to load data.");
+			return false;
+		}
+		boolean success = true;
+		if (productFile != null) {
+			success &= report(store.importProducts(productFile));
+		}
+		if (memberFile != null) {
+			success &= report(store.importMembers(memberFile));
+		}
+		if (fileName != null) {
+			success &= new BatchInterface(store).run(fileName);
+		}
+		if (save && !Store.save()) {
+			System.err.println("Failure to save data.");
+			return false;
+		}
+		return success;
+	}
+
+	/**
+	 * Prints the outcome of an import, the lines skipped on standard error
+	 * 
+	 * @param result the result of the import
+	 * @return true iff every line was imported
+	 */
+	private static boolean report(Result result) {
+		for (Result line : result.getItems()) {
+			System.err.println(line.getMessage());
+		}
+		System.out.println(result.getMessage());
+		return result.getSuccess() && result.getItems().isEmpty();
+	}
+
+	/**
+	 * program entry point, calls the input loop, or runs a command file when
+	 * given -batch
+	 * 
+	 * @param args nothing for the interactive interface, or the options of
+	 *             runBatch
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.exit(runBatch(args) ? 0 : 1);
+		}
 		UserInterface.instance().inputLoop();
 	}
 }
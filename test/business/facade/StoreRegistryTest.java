@@ -0,0 +1,129 @@
+package business.facade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Checks that a store evicted from a StoreRegistry while a compaction of its
+ * journal is still waiting to run is left alone by that compaction. The store
+ * is opened again before the compaction runs, the snapshot and journal of the
+ * new store must not be touched by the old one.
+ *
+ * java -cp bin business.facade.StoreRegistryTest
+ *
+ * Exits with an AssertionError if the check fails.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class StoreRegistryTest {
+	private static final String STORE_ID = "north";
+	// enough records for the store to compact its journal in the background
+	private static final int ENROLLMENTS = 10000;
+	private static final long TIMEOUT = 10000;
+
+	/**
+	 * Runs the check
+	 *
+	 * @param args not used
+	 * @throws Exception if the data files cannot be read
+	 */
+	public static void main(String[] args) throws Exception {
+		File root = Files.createTempDirectory("StoreRegistryTest").toFile();
+		File directory = new File(root, STORE_ID);
+		StoreRegistry registry = new StoreRegistry(root, 0);
+		registry.apply(STORE_ID, store -> null);
+		byte[] snapshot;
+		long journalLength;
+		synchronized (Store.persistence(directory)) {
+			// the compaction started by the enrollments waits for this lock
+			for (int index = 0; index < ENROLLMENTS; index++) {
+				registry.apply(STORE_ID, StoreRegistryTest::enroll);
+			}
+			awaitSavers(true);
+			registry.evictIdle();
+			check(registry.size() == 0, "the store was not evicted");
+			registry.apply(STORE_ID, StoreRegistryTest::enroll);
+			snapshot = Files.readAllBytes(new File(directory, "StoreData").toPath());
+			journalLength = new File(directory, "StoreJournal").length();
+		}
+		awaitSavers(false);
+		check(Arrays.equals(snapshot, Files.readAllBytes(new File(directory, "StoreData").toPath())),
+				"the evicted store overwrote the snapshot");
+		check(new File(directory, "StoreJournal").length() >= journalLength,
+				"the evicted store truncated the journal");
+		registry.close();
+		int members = registry.apply(STORE_ID, StoreRegistryTest::countMembers);
+		check(members == ENROLLMENTS + 1, members + " members after reopening, expected " + (ENROLLMENTS + 1));
+		registry.close();
+		delete(root);
+		System.out.println("StoreRegistryTest passed");
+	}
+
+	private static Result enroll(Store store) {
+		Request request = new Request();
+		request.setMemberName("Member");
+		request.setMemberAddress("1 Main St");
+		request.setMemberPhoneNumber("555-0100");
+		request.setMemberFees(2000);
+		request.setMemberJoinDate(new Date());
+		return store.enrollMember(request);
+	}
+
+	private static int countMembers(Store store) {
+		int count = 0;
+		for (Iterator<?> members = store.getMemberViews(); members.hasNext(); members.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Waits for a store saver thread to block on a lock, or for all of them to
+	 * be idle
+	 *
+	 * @param blocked true to wait for a blocked saver, false for idle savers
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static void awaitSavers(boolean blocked) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			boolean anyBlocked = false;
+			boolean anyBusy = false;
+			for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+				Thread thread = entry.getKey();
+				if (thread.getName().equals("Store saver")) {
+					Thread.State state = thread.getState();
+					anyBlocked |= state == Thread.State.BLOCKED;
+					anyBusy |= state == Thread.State.BLOCKED || state == Thread.State.RUNNABLE;
+				}
+			}
+			if (blocked ? anyBlocked : !anyBusy) {
+				return;
+			}
+			Thread.sleep(10);
+		}
+		throw new AssertionError(blocked ? "no compaction was started" : "the compaction did not finish");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	private static void delete(File file) throws IOException {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		Files.delete(file.toPath());
+	}
+}
@@ -0,0 +1,85 @@
+package business.facade;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Iterator;
+
+/**
+ * Checks that a store retrieved when no store exists yet becomes the current
+ * store: instance hands it out, save writes it and a second retrieve finds what
+ * was added to it.
+ *
+ * Run from an empty directory, the store files are written to the working
+ * directory: java -cp bin business.facade.StoreRetrieveTest
+ *
+ * Exits with an AssertionError if the check fails.
+ *
+ * @author Vincent Peterson, Michael Olson
+ *
+ */
+public class StoreRetrieveTest {
+	private static final String[] DATA_FILES = { "StoreData", "StoreJournal", "StoreHistory" };
+
+	/**
+	 * Runs the check
+	 *
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		for (String name : DATA_FILES) {
+			if (new File(name).exists()) {
+				System.out.println(name + " found, run the test from an empty directory.");
+				return;
+			}
+		}
+		try {
+			// saved without becoming the current store, like data left by an earlier run
+			Store saved = Store.open(new File(".").getAbsoluteFile());
+			check(saved != null, "the store could not be saved");
+			enroll(saved);
+			saved.close();
+
+			Store retrieved = Store.retrieve();
+			check(retrieved != null, "the store could not be retrieved");
+			check(Store.instance() == retrieved, "instance does not hand out the retrieved store");
+			check(Store.current() == retrieved, "the retrieved store is not the current store");
+			enroll(retrieved);
+			check(Store.save(), "the retrieved store could not be saved");
+
+			Store again = Store.retrieve();
+			check(again != null, "the store could not be retrieved again");
+			int members = countMembers(again);
+			check(members == 2, members + " members after retrieving again, expected 2");
+			again.close();
+			System.out.println("StoreRetrieveTest passed");
+		} finally {
+			for (String name : DATA_FILES) {
+				new File(name).delete();
+			}
+		}
+	}
+
+	private static void enroll(Store store) {
+		Request request = new Request();
+		request.setMemberName("Member");
+		request.setMemberAddress("1 Main St");
+		request.setMemberPhoneNumber("555-0100");
+		request.setMemberFees(2000);
+		request.setMemberJoinDate(new Date());
+		check(store.enrollMember(request).getSuccess(), "the member could not be enrolled");
+	}
+
+	private static int countMembers(Store store) {
+		int count = 0;
+		for (Iterator<?> members = store.getMemberViews(); members.hasNext(); members.next()) {
+			count++;
+		}
+		return count;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}